@@ -0,0 +1,133 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * {@link Benchmark} measures a block of code on the device: its throughput, its latency
+ * percentiles and how much it allocates per run. The block is warmed up first, timed run by
+ * run, then run again with allocation counting on, which would otherwise skew the timings.
+ * Results are logged under the "Benchmark" tag and reported as instrumentation status, so
+ * they show up in the output of {@code am instrument} and {@code gradlew connectedCheck}.
+ *
+ * Run only the benchmarks with
+ * {@code ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.package=com.alperencan.booklisting.android.benchmark},
+ * and compare numbers taken on the same device, plugged in and idle.
+ */
+final class Benchmark {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = "Benchmark";
+
+    /**
+     * Code measured by a benchmark.
+     */
+    interface Block {
+        void run() throws Exception;
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Measure the given block and report the result.
+     *
+     * @param name identifies the benchmark in the report
+     * @param warmupRuns is the number of runs before measuring, so that the code is compiled
+     * @param runs is the number of runs measured
+     */
+    @SuppressWarnings("deprecation")
+    static Result measure(String name, int warmupRuns, int runs, Block block) throws Exception {
+        for (int i = 0; i < warmupRuns; i++) {
+            block.run();
+        }
+
+        long[] durations = new long[runs];
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            long runStart = System.nanoTime();
+            block.run();
+            durations[i] = System.nanoTime() - runStart;
+        }
+        long total = System.nanoTime() - start;
+
+        // Thread allocation counters are deprecated, but still the only per-thread figures on API 19
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        for (int i = 0; i < runs; i++) {
+            block.run();
+        }
+        long allocatedBytes = Debug.getThreadAllocSize();
+        long allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Arrays.sort(durations);
+        Result result = new Result(name, runs, total, percentile(durations, 50), percentile(durations, 99),
+                durations[runs - 1], (double) allocatedBytes / runs, (double) allocations / runs);
+        result.report();
+        return result;
+    }
+
+    private static long percentile(long[] sortedDurations, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedDurations.length) - 1;
+        return sortedDurations[Math.max(0, Math.min(index, sortedDurations.length - 1))];
+    }
+
+    /**
+     * The measurements of a benchmark.
+     */
+    static class Result {
+
+        final String name;
+        final int runs;
+        /** Runs per second */
+        final double throughput;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long maxNanos;
+        final double bytesPerRun;
+        final double allocationsPerRun;
+
+        Result(String name, int runs, long totalNanos, long p50Nanos, long p99Nanos, long maxNanos,
+               double bytesPerRun, double allocationsPerRun) {
+            this.name = name;
+            this.runs = runs;
+            this.throughput = runs * 1e9 / totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.bytesPerRun = bytesPerRun;
+            this.allocationsPerRun = allocationsPerRun;
+        }
+
+        /**
+         * @return the bytes allocated per second at full throughput
+         */
+        double allocationRate() {
+            return bytesPerRun * throughput;
+        }
+
+        void report() {
+            Log.i(LOG_TAG, toString());
+            Bundle status = new Bundle();
+            status.putString(name, toString());
+            InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %.1f ops/s, p50 %.1f us, p99 %.1f us, max %.1f us, %.0f B/op (%.1f allocs/op, %.2f MB/s) over %d runs",
+                    name, throughput, p50Nanos / 1e3, p99Nanos / 1e3, maxNanos / 1e3, bytesPerRun, allocationsPerRun,
+                    allocationRate() / (1024 * 1024), runs);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+
+import com.alperencan.booklisting.android.adapter.VolumeAdapter;
+import com.alperencan.booklisting.android.image.ImageCache;
+import com.alperencan.booklisting.android.model.Volume;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmarks binding volumes to rows, as happens on every scroll, and building the volumes
+ * themselves, which is where the authors text is formatted. Covers are already in the memory
+ * cache, as they are when scrolling back through rows seen before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BindBenchmarkTest {
+
+    private static final int WARMUP_RUNS = 1000;
+    private static final int RUNS = 10000;
+
+    @Test
+    public void bindRows() throws Exception {
+        final List<Volume> volumes = Fixtures.volumes();
+        final Context context = InstrumentationRegistry.getTargetContext();
+
+        // Views and the image loader belong to the main thread
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RecyclerView parent = new RecyclerView(context);
+                    parent.setLayoutManager(new LinearLayoutManager(context));
+                    final VolumeAdapter adapter = new VolumeAdapter(volumes);
+                    final VolumeAdapter.VolumeViewHolder holder = adapter.onCreateViewHolder(parent, 0);
+
+                    // Seed the cache with the cover variant the adapter picks for the rows' width
+                    int coverWidth = holder.coverImageView.getLayoutParams().width;
+                    ImageCache imageCache = ImageCache.getInstance(context);
+                    for (Volume volume : volumes) {
+                        String url = volume.getCoverImageUrl(coverWidth);
+                        if (TextUtils.isEmpty(url)) {
+                            continue;
+                        }
+                        imageCache.putBitmap(url, Bitmap.createBitmap(64, 96, Bitmap.Config.RGB_565));
+                    }
+
+                    final int[] position = {0};
+                    Benchmark.measure("bind_row", WARMUP_RUNS, RUNS, new Benchmark.Block() {
+                        @Override
+                        public void run() {
+                            adapter.onBindViewHolder(holder, position[0]);
+                            position[0] = (position[0] + 1) % volumes.size();
+                        }
+                    });
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    @Test
+    public void buildVolumes() throws Exception {
+        final String[][] authors = {
+                {},
+                {"Joshua Bloch"},
+                {"Erich Gamma", "Richard Helm", "Ralph Johnson", "John Vlissides"}
+        };
+        final int[] index = {0};
+        Benchmark.measure("build_volume", WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() {
+                new Volume("id", "Title", authors[index[0]], "");
+                index[0] = (index[0] + 1) % authors.length;
+            }
+        });
+    }
+}
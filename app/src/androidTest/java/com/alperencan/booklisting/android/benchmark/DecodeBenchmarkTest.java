@@ -0,0 +1,85 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.graphics.Bitmap;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.alperencan.booklisting.android.image.BitmapDecoder;
+import com.alperencan.booklisting.android.image.BitmapPool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Benchmarks decoding covers at the size of a list row, with and without reusing bitmaps
+ * from a {@link BitmapPool}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodeBenchmarkTest {
+
+    private static final int WARMUP_RUNS = 20;
+    private static final int RUNS = 300;
+
+    /** Size of a row's cover, in dp */
+    private static final int ROW_COVER_DP = 64;
+
+    /** A "thumbnail" cover, as the API serves it */
+    private static byte[] thumbnail;
+
+    /** A larger cover, such as "medium" */
+    private static byte[] largeCover;
+
+    private static int targetSize;
+
+    @BeforeClass
+    public static void createCovers() {
+        thumbnail = Fixtures.coverJpeg(128, 193, 1);
+        largeCover = Fixtures.coverJpeg(575, 868, 2);
+        float density = InstrumentationRegistry.getTargetContext().getResources().getDisplayMetrics().density;
+        targetSize = Math.round(ROW_COVER_DP * density);
+    }
+
+    @Test
+    public void thumbnailWithoutPool() throws Exception {
+        measureWithoutPool("decode_thumbnail", thumbnail);
+    }
+
+    @Test
+    public void thumbnailWithPool() throws Exception {
+        measureWithPool("decode_thumbnail_pooled", thumbnail);
+    }
+
+    @Test
+    public void largeCoverWithoutPool() throws Exception {
+        measureWithoutPool("decode_large", largeCover);
+    }
+
+    @Test
+    public void largeCoverWithPool() throws Exception {
+        measureWithPool("decode_large_pooled", largeCover);
+    }
+
+    private static void measureWithoutPool(String name, final byte[] data) throws Exception {
+        assertNotNull(BitmapDecoder.decode(data, targetSize, targetSize, Bitmap.Config.RGB_565, null));
+        Benchmark.measure(name, WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() {
+                BitmapDecoder.decode(data, targetSize, targetSize, Bitmap.Config.RGB_565, null).recycle();
+            }
+        });
+    }
+
+    private static void measureWithPool(String name, final byte[] data) throws Exception {
+        final BitmapPool pool = new BitmapPool(4 * 1024 * 1024);
+        Benchmark.measure(name, WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() {
+                // Like a row scrolling out of view, its bitmap goes back to the pool for the next one
+                pool.put(BitmapDecoder.decode(data, targetSize, targetSize, Bitmap.Config.RGB_565, pool));
+            }
+        });
+    }
+}
@@ -0,0 +1,346 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.alperencan.booklisting.android.BuildConfig;
+import com.alperencan.booklisting.android.R;
+import com.alperencan.booklisting.android.data.SavedSearches;
+import com.alperencan.booklisting.android.image.BitmapDecoder;
+import com.alperencan.booklisting.android.image.BitmapPool;
+import com.alperencan.booklisting.android.image.ImageCache;
+import com.alperencan.booklisting.android.image.ImageLoader;
+import com.alperencan.booklisting.android.model.Volume;
+import com.alperencan.booklisting.android.server.FakeBooksServer;
+import com.alperencan.booklisting.android.sync.SavedSearchSync;
+import com.alperencan.booklisting.android.utils.CircuitBreaker;
+import com.alperencan.booklisting.android.utils.DiskResponseCache;
+import com.alperencan.booklisting.android.utils.FetchResult;
+import com.alperencan.booklisting.android.utils.HttpClient;
+import com.alperencan.booklisting.android.utils.QueryResultCache;
+import com.alperencan.booklisting.android.utils.QueryUtils;
+import com.alperencan.booklisting.android.utils.RetryPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exercises the fetch and image pipelines against a {@link FakeBooksServer}: pagination,
+ * retries, the circuit breaker, connection reuse and the refresh of saved searches, then
+ * measures them under latency and limited bandwidth.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FetchPipelineLoadTest {
+
+    private FakeBooksServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new FakeBooksServer();
+        server.setDefaultResponse(Fixtures.readAsset(Fixtures.FULL_RESPONSE));
+        server.setCover(Fixtures.coverJpeg(128, 193, 1));
+        server.start();
+
+        // Every request must reach the server
+        QueryUtils.setResponseCache(null);
+        QueryUtils.setVolumeStore(null);
+        QueryResultCache.getInstance().clear();
+        QueryUtils.setRetryPolicy(new RetryPolicy(3, 10, 200));
+        QueryUtils.setCircuitBreaker(new CircuitBreaker(5, 30000));
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void pagesThroughEveryResult() {
+        server.setTotalItems(100);
+        Set<String> ids = new HashSet<>();
+        int startIndex = 0;
+        while (true) {
+            List<Volume> page = QueryUtils.fetchVolumeData(server.getVolumesUrl(), "android", startIndex, 40);
+            assertNotNull(page);
+            if (page.isEmpty()) {
+                break;
+            }
+            for (Volume volume : page) {
+                ids.add(volume.getId());
+            }
+            startIndex += 40;
+        }
+        assertEquals(100, ids.size());
+        assertEquals(4, server.getVolumeRequestCount());
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        server.setErrorRate(0.3, 42, 0);
+        QueryUtils.setRetryPolicy(new RetryPolicy(8, 10, 200));
+        for (int i = 0; i < 20; i++) {
+            FetchResult result = QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "query " + i, 0, 20, false, null);
+            assertTrue(result.isSuccess());
+        }
+        assertTrue(server.getErrorCount() > 0);
+    }
+
+    @Test
+    public void failsFastWhileTheServerIsFailing() {
+        server.setErrorRate(1, 0, -1);
+        QueryUtils.setRetryPolicy(new RetryPolicy(1, 10, 200));
+        QueryUtils.setCircuitBreaker(new CircuitBreaker(3, 60000));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(FetchResult.Error.SERVER, QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "query " + i,
+                    0, 20, false, null).getError());
+        }
+        assertEquals(FetchResult.Error.CIRCUIT_OPEN, QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "query 3",
+                0, 20, false, null).getError());
+        assertEquals(3, server.getErrorCount());
+    }
+
+    @Test
+    public void cancelledTrialRequestDoesNotKeepTheCircuitHalfOpen() {
+        server.setErrorRate(1, 0, -1);
+        QueryUtils.setRetryPolicy(new RetryPolicy(1, 10, 200));
+        CircuitBreaker breaker = new CircuitBreaker(1, 100);
+        QueryUtils.setCircuitBreaker(breaker);
+        assertEquals(FetchResult.Error.SERVER, QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "query 0",
+                0, 20, false, null).getError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // The trial request is cancelled while it waits for the server
+        SystemClock.sleep(150);
+        server.setErrorRate(0, 0, -1);
+        server.setLatency(5000);
+        final CancellationSignal cancellationSignal = new CancellationSignal();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(200);
+                cancellationSignal.cancel();
+            }
+        }).start();
+        assertEquals(FetchResult.Error.CANCELLED, QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "query 1",
+                0, 20, false, cancellationSignal).getError());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // The next request is the trial, and closes the circuit
+        server.setLatency(0);
+        assertTrue(QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "query 2", 0, 20, false, null).isSuccess());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void reusesConnections() {
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(QueryUtils.fetchVolumeData(server.getVolumesUrl(), "query " + i, 0, 20));
+        }
+        assertEquals(20, server.getVolumeRequestCount());
+        assertTrue("connections: " + server.getConnectionCount(), server.getConnectionCount() < 20);
+    }
+
+    @Test
+    public void streamsVolumesAsTheyAreParsed() {
+        server.setBandwidth(16 * 1024);
+        final List<Volume> streamed = new ArrayList<>();
+        final long[] firstVolumeNanos = new long[1];
+        long start = System.nanoTime();
+        FetchResult result = QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "android", 0, 40, false, null,
+                new QueryUtils.StreamListener() {
+                    @Override
+                    public void onVolumesParsed(List<Volume> volumes) {
+                        if (streamed.isEmpty()) {
+                            firstVolumeNanos[0] = System.nanoTime();
+                            assertEquals(1, volumes.size());
+                        }
+                        assertTrue(volumes.size() <= 5);
+                        streamed.addAll(volumes);
+                    }
+                }, 5);
+        long total = System.nanoTime() - start;
+
+        assertTrue(result.isSuccess());
+        assertEquals(result.getVolumes(), streamed);
+        assertTrue("first volume after " + (firstVolumeNanos[0] - start) + " ns of " + total,
+                firstVolumeNanos[0] - start < total / 2);
+    }
+
+    @Test
+    public void syncWarmsTheCachesOfSavedSearches() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        File directory = new File(context.getCacheDir(), "saved_search_sync_test");
+        deleteFiles(directory);
+        SharedPreferences preferences = context.getSharedPreferences("saved_search_sync_test",
+                Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+
+        SavedSearches savedSearches = new SavedSearches(preferences, 10);
+        savedSearches.add("android");
+        savedSearches.add("performance");
+        ImageLoader imageLoader = new ImageLoader(new ImageCache(new File(directory, "covers"), 4 * 1024 * 1024,
+                10 * 1024 * 1024), new BitmapPool(1024 * 1024), 2);
+        // Far shorter than the time to live of the responses the refresh fetches
+        long timeToLive = 60000;
+        QueryUtils.setResponseCache(new DiskResponseCache(new File(directory, "responses"), 1024 * 1024,
+                timeToLive));
+        QueryUtils.setGoogleBooksApiBaseUrl(server.getVolumesUrl());
+        int pageSize = context.getResources().getInteger(R.integer.page_size);
+        try {
+            assertTrue(SavedSearchSync.sync(context, savedSearches, imageLoader, null));
+            assertEquals(2, server.getVolumeRequestCount());
+            assertTrue(server.getCoverRequestCount() > 0);
+            assertNotNull(QueryResultCache.getInstance().get(server.getVolumesUrl(), "android", 0, pageSize));
+
+            // Everything is cached now, a second refresh has nothing to fetch
+            int coverRequests = server.getCoverRequestCount();
+            assertTrue(SavedSearchSync.sync(context, savedSearches, imageLoader, null));
+            assertEquals(2, server.getVolumeRequestCount());
+            assertEquals(coverRequests, server.getCoverRequestCount());
+
+            // Opened after the results left memory and the cache's own time to live passed,
+            // the search is still served from disk without a request
+            QueryResultCache.getInstance().clear();
+            File[] responses = new File(directory, "responses").listFiles();
+            assertNotNull(responses);
+            for (File response : responses) {
+                assertTrue(response.setLastModified(System.currentTimeMillis() - 2 * timeToLive));
+            }
+            FetchResult result = QueryUtils.fetchVolumeResult(server.getVolumesUrl(), "android", 0, pageSize,
+                    false, null);
+            assertTrue(result.isSuccess());
+            assertTrue(result.getVolumes().size() > 0);
+            assertEquals(2, server.getVolumeRequestCount());
+        } finally {
+            QueryUtils.setGoogleBooksApiBaseUrl(BuildConfig.GOOGLE_BOOKS_API_BASE_URL);
+            QueryUtils.setResponseCache(null);
+            preferences.edit().clear().commit();
+            deleteFiles(directory);
+        }
+    }
+
+    @Test
+    public void concurrentWritesOfOneResponseKeepItWhole() throws Exception {
+        File directory = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "response_cache_test");
+        deleteFiles(directory);
+        assertTrue(directory.mkdirs());
+        // Left behind by a process killed during a download
+        File orphan = new File(directory, "orphan.tmp");
+        new FileOutputStream(orphan).close();
+
+        DiskResponseCache cache = new DiskResponseCache(directory, 1024 * 1024, 60000);
+        String url = server.getVolumesUrl() + "q=android";
+        try {
+            DiskResponseCache.Editor first = cache.edit(url, "\"1\"", null);
+            DiskResponseCache.Editor second = cache.edit(url, "\"2\"", null);
+            assertFalse(orphan.exists());
+
+            InputStream firstBody = first.wrap(new ByteArrayInputStream("first".getBytes("UTF-8")));
+            InputStream secondBody = second.wrap(new ByteArrayInputStream("second response".getBytes("UTF-8")));
+            readString(firstBody);
+            first.commit();
+            readString(secondBody);
+            second.commit();
+
+            DiskResponseCache.Entry entry = cache.get(url);
+            assertNotNull(entry);
+            assertEquals("\"2\"", entry.etag);
+            assertEquals("second response", readString(entry.openBody()));
+        } finally {
+            deleteFiles(directory);
+        }
+    }
+
+    @Test
+    public void batchUnderLatency() throws Exception {
+        server.setLatency(50);
+        server.setBandwidth(256 * 1024);
+        final List<String> queries = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            queries.add("query " + i);
+        }
+        Benchmark.measure("load_batch_8_queries", 1, 10, new Benchmark.Block() {
+            @Override
+            public void run() {
+                QueryResultCache.getInstance().clear();
+                List<Volume> volumes = QueryUtils.fetchVolumeDataBatch(server.getVolumesUrl(), queries, 20, 4,
+                        30000, null, null);
+                // Every query replays the same recorded items
+                assertEquals(20, volumes.size());
+            }
+        });
+    }
+
+    @Test
+    public void coverDownloadUnderLatency() throws Exception {
+        server.setLatency(50);
+        server.setBandwidth(128 * 1024);
+        final URL url = new URL(server.getBaseUrl() + FakeBooksServer.COVERS_PATH + "?id=cover");
+        Benchmark.measure("load_cover_download", 2, 20, new Benchmark.Block() {
+            @Override
+            public void run() throws Exception {
+                HttpClient.Response response = HttpClient.getInstance().get(url, null, null);
+                try {
+                    assertEquals(HttpURLConnection.HTTP_OK, response.getResponseCode());
+                    assertNotNull(BitmapDecoder.decode(readBytes(response.getBody()), 128, 128,
+                            Bitmap.Config.RGB_565, null));
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    private static byte[] readBytes(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static String readString(InputStream inputStream) throws IOException {
+        return new String(readBytes(inputStream), "UTF-8");
+    }
+
+    private static void deleteFiles(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteFiles(child);
+            }
+        }
+        file.delete();
+    }
+}
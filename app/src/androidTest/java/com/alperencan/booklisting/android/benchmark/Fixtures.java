@@ -0,0 +1,88 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.support.test.InstrumentationRegistry;
+
+import com.alperencan.booklisting.android.model.Volume;
+import com.alperencan.booklisting.android.utils.QueryUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks. The JSON fixtures in the test assets have the shape of
+ * "volumes?q=" responses from the Google Books API: one with full volume resources and the
+ * same page restricted to the fields the app requests. Cover images are drawn and compressed
+ * to JPEG at the sizes the API serves, with noise so that they compress like real covers.
+ */
+final class Fixtures {
+
+    static final String FULL_RESPONSE = "fixtures/volumes_full.json";
+    static final String FIELDS_RESPONSE = "fixtures/volumes_fields.json";
+
+    /** Number of volumes in each response */
+    static final int VOLUME_COUNT = 40;
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return the content of the given test asset
+     */
+    static byte[] readAsset(String name) throws IOException {
+        InputStream inputStream = InstrumentationRegistry.getContext().getAssets().open(name);
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @return the volumes of the full response
+     */
+    static List<Volume> volumes() throws IOException {
+        return QueryUtils.extractVolumesFromStream(new ByteArrayInputStream(readAsset(FULL_RESPONSE)));
+    }
+
+    /**
+     * @return a JPEG cover of the given size, the same for the same seed
+     */
+    static byte[] coverJpeg(int width, int height, long seed) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Random random = new Random(seed);
+
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, Color.rgb(random.nextInt(256), random.nextInt(256),
+                random.nextInt(256)), Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)),
+                Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+
+        paint.setShader(null);
+        for (int i = 0; i < width * height / 16; i++) {
+            paint.setColor(Color.argb(96, random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            canvas.drawPoint(random.nextInt(width), random.nextInt(height), paint);
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 80, outputStream);
+        bitmap.recycle();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.alperencan.booklisting.android.utils.QueryUtils;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks turning Google Books API responses into volumes, with both parsers, on a full
+ * response and on one restricted to the fields we parse.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParseBenchmarkTest {
+
+    private static final int WARMUP_RUNS = 50;
+    private static final int RUNS = 500;
+
+    private static byte[] fullResponse;
+    private static byte[] fieldsResponse;
+
+    @BeforeClass
+    public static void loadFixtures() throws IOException {
+        fullResponse = Fixtures.readAsset(Fixtures.FULL_RESPONSE);
+        fieldsResponse = Fixtures.readAsset(Fixtures.FIELDS_RESPONSE);
+    }
+
+    @Test
+    public void domFullResponse() throws Exception {
+        final String json = new String(fullResponse, Charset.forName("UTF-8"));
+        assertEquals(Fixtures.VOLUME_COUNT, QueryUtils.extractVolumesFromJson(json).size());
+        Benchmark.measure("parse_dom_full", WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() {
+                QueryUtils.extractVolumesFromJson(json);
+            }
+        });
+    }
+
+    @Test
+    public void streamingFullResponse() throws Exception {
+        assertEquals(Fixtures.VOLUME_COUNT, QueryUtils.extractVolumesFromStream(new ByteArrayInputStream(fullResponse)).size());
+        Benchmark.measure("parse_streaming_full", WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() throws IOException {
+                QueryUtils.extractVolumesFromStream(new ByteArrayInputStream(fullResponse));
+            }
+        });
+    }
+
+    @Test
+    public void domFieldsResponse() throws Exception {
+        final String json = new String(fieldsResponse, Charset.forName("UTF-8"));
+        assertEquals(Fixtures.VOLUME_COUNT, QueryUtils.extractVolumesFromJson(json).size());
+        Benchmark.measure("parse_dom_fields", WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() {
+                QueryUtils.extractVolumesFromJson(json);
+            }
+        });
+    }
+
+    @Test
+    public void streamingFieldsResponse() throws Exception {
+        assertEquals(Fixtures.VOLUME_COUNT, QueryUtils.extractVolumesFromStream(new ByteArrayInputStream(fieldsResponse)).size());
+        Benchmark.measure("parse_streaming_fields", WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() throws IOException {
+                QueryUtils.extractVolumesFromStream(new ByteArrayInputStream(fieldsResponse));
+            }
+        });
+    }
+}
@@ -0,0 +1,81 @@
+package com.alperencan.booklisting.android.benchmark;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.alperencan.booklisting.android.data.ResultSnapshot;
+import com.alperencan.booklisting.android.model.Volume;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Benchmarks reading the snapshot of the last results, which happens on the main thread
+ * before the first frame of a cold start.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SnapshotBenchmarkTest {
+
+    private static final int WARMUP_RUNS = 20;
+    private static final int RUNS = 200;
+
+    private File file;
+
+    @Before
+    public void createFile() {
+        file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "snapshot_benchmark.bin");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        assertNull(ResultSnapshot.read(file, Fixtures.VOLUME_COUNT));
+
+        List<Volume> volumes = Fixtures.volumes();
+        new ResultSnapshot("android performance", volumes).write(file);
+        ResultSnapshot snapshot = ResultSnapshot.read(file, Fixtures.VOLUME_COUNT);
+        assertNotNull(snapshot);
+        assertEquals("android performance", snapshot.getQuery());
+        assertEquals(volumes.size(), snapshot.getVolumes().size());
+        for (int i = 0; i < volumes.size(); i++) {
+            Volume expected = volumes.get(i);
+            Volume actual = snapshot.getVolumes().get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getTitle(), actual.getTitle());
+            assertEquals(expected.getAuthorsText(), actual.getAuthorsText());
+            assertEquals(expected.getCoverImageUrl(), actual.getCoverImageUrl());
+            assertEquals(expected.getSmallCoverImageUrl(), actual.getSmallCoverImageUrl());
+        }
+    }
+
+    @Test
+    public void tooManyVolumes() throws Exception {
+        new ResultSnapshot("android performance", Fixtures.volumes()).write(file);
+        assertNull(ResultSnapshot.read(file, Fixtures.VOLUME_COUNT - 1));
+    }
+
+    @Test
+    public void read() throws Exception {
+        new ResultSnapshot("android performance", Fixtures.volumes()).write(file);
+        Benchmark.measure("snapshot_read_" + Fixtures.VOLUME_COUNT, WARMUP_RUNS, RUNS, new Benchmark.Block() {
+            @Override
+            public void run() {
+                ResultSnapshot.read(file, Fixtures.VOLUME_COUNT);
+            }
+        });
+    }
+}
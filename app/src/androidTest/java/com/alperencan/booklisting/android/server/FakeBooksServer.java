@@ -0,0 +1,383 @@
+package com.alperencan.booklisting.android.server;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link FakeBooksServer} stands in for the Google Books API on the loopback interface, so that
+ * the fetch and image pipelines can be exercised and load tested without googleapis.com.
+ *
+ * It answers "/books/v1/volumes?q=" with recorded responses, paginated with startIndex and
+ * maxResults over a configurable number of results, and "/books/content?id=" with cover
+ * images. Cover links in the responses point back at the server. The fields parameter is
+ * ignored: responses always carry full volume resources. Every response can be delayed,
+ * throttled to a bandwidth, or replaced by a 503 at a given rate, with a seeded random so
+ * that runs are repeatable. It speaks HTTP/1.1 with keep-alive and gzip, like the real API.
+ */
+public class FakeBooksServer {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = FakeBooksServer.class.getSimpleName();
+
+    /** Path of the volumes search endpoint */
+    public static final String VOLUMES_PATH = "/books/v1/volumes";
+
+    /** Path covers are served under */
+    public static final String COVERS_PATH = "/books/content";
+
+    /** Host the recorded cover links point at, rewritten to the server's own address */
+    private static final String RECORDED_COVER_HOST = "http://books.google.com";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Recorded items, keyed by normalized search term, "" being used for any other term */
+    private final Map<String, JSONArray> recordedItems = new HashMap<>();
+
+    private final AtomicInteger volumeRequestCount = new AtomicInteger();
+    private final AtomicInteger coverRequestCount = new AtomicInteger();
+    private final AtomicInteger errorCount = new AtomicInteger();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private volatile int totalItems = 200;
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double errorRate;
+    private volatile int retryAfterSeconds = -1;
+    private volatile byte[] cover = new byte[0];
+    private Random random = new Random(0);
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    /**
+     * Replay the items of the given recorded response for any search term without its own.
+     */
+    public void setDefaultResponse(byte[] json) throws JSONException {
+        addResponse("", json);
+    }
+
+    /**
+     * Replay the items of the given recorded response for the given search term.
+     */
+    public void addResponse(String query, byte[] json) throws JSONException {
+        JSONArray items = new JSONObject(new String(json, UTF_8)).getJSONArray("items");
+        synchronized (recordedItems) {
+            recordedItems.put(normalize(query), items);
+        }
+    }
+
+    /**
+     * Set the image served for every cover.
+     */
+    public void setCover(byte[] jpeg) {
+        cover = jpeg;
+    }
+
+    /**
+     * Set the number of results of every search. Pages past the recorded items repeat them
+     * with distinct ids.
+     */
+    public void setTotalItems(int totalItems) {
+        this.totalItems = totalItems;
+    }
+
+    /**
+     * Set the time every response is delayed by before its headers are sent.
+     */
+    public void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Set the bandwidth response bodies are sent at, or 0 for no limit.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answer the given fraction of requests with a 503, chosen by a random with the given seed.
+     *
+     * @param retryAfterSeconds is sent as the Retry-After header of the errors, or -1 for none
+     */
+    public synchronized void setErrorRate(double errorRate, long seed, int retryAfterSeconds) {
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Start listening on a free port of the loopback interface.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Stop listening and close every connection.
+     */
+    public void shutdown() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the base URL of the volumes endpoint, to use in place of the Google Books API's
+     */
+    public String getVolumesUrl() {
+        return getBaseUrl() + VOLUMES_PATH + "?";
+    }
+
+    /**
+     * @return the scheme, host and port of the server
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    public int getVolumeRequestCount() {
+        return volumeRequestCount.get();
+    }
+
+    public int getCoverRequestCount() {
+        return coverRequestCount.get();
+    }
+
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return the number of TCP connections accepted, lower than the number of requests
+     * when connections are kept alive
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    Log.w(LOG_TAG, "Problem accepting a connection.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Answer the requests of a connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(inputStream);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    break;
+                }
+                Map<String, String> headers = new HashMap<>();
+                for (String line = readLine(inputStream); line != null && !line.isEmpty(); line = readLine(inputStream)) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+                    }
+                }
+
+                String[] parts = requestLine.split(" ");
+                boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+                respond(parts.length > 1 ? parts[1] : "/", headers, keepAlive, outputStream);
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // The client went away
+        } catch (IOException | InterruptedException e) {
+            Log.w(LOG_TAG, "Problem serving a connection.", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    private void respond(String target, Map<String, String> headers, boolean keepAlive, OutputStream outputStream)
+            throws IOException, InterruptedException {
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+
+        Uri uri = Uri.parse(target);
+        if (shouldFail()) {
+            errorCount.incrementAndGet();
+            String extra = retryAfterSeconds >= 0 ? "Retry-After: " + retryAfterSeconds + "\r\n" : "";
+            send(outputStream, 503, "Service Unavailable", "application/json", extra,
+                    "{\"error\":{\"code\":503}}".getBytes(UTF_8), false, keepAlive);
+            return;
+        }
+
+        boolean gzip = headers.containsKey("accept-encoding") && headers.get("accept-encoding").contains("gzip");
+        if (VOLUMES_PATH.equals(uri.getPath())) {
+            volumeRequestCount.incrementAndGet();
+            byte[] body = volumesPage(uri).getBytes(UTF_8);
+            send(outputStream, 200, "OK", "application/json; charset=UTF-8", "", body, gzip, keepAlive);
+        } else if (COVERS_PATH.equals(uri.getPath())) {
+            coverRequestCount.incrementAndGet();
+            // Already compressed, like the real covers
+            send(outputStream, 200, "OK", "image/jpeg", "", cover, false, keepAlive);
+        } else {
+            send(outputStream, 404, "Not Found", "text/plain", "", "Not found".getBytes(UTF_8), false, keepAlive);
+        }
+    }
+
+    private synchronized boolean shouldFail() {
+        return errorRate > 0 && random.nextDouble() < errorRate;
+    }
+
+    /**
+     * @return the page of results the given request asks for, in the shape of the API's responses
+     */
+    private String volumesPage(Uri uri) {
+        JSONArray items;
+        synchronized (recordedItems) {
+            items = recordedItems.get(normalize(uri.getQueryParameter("q")));
+            if (items == null) {
+                items = recordedItems.get("");
+            }
+        }
+        int startIndex = parseInt(uri.getQueryParameter("startIndex"), 0);
+        int maxResults = Math.min(parseInt(uri.getQueryParameter("maxResults"), 10), 40);
+
+        try {
+            JSONObject page = new JSONObject();
+            page.put("kind", "books#volumes");
+            page.put("totalItems", totalItems);
+            int end = Math.min(startIndex + maxResults, totalItems);
+            if (items != null && items.length() > 0 && startIndex < end) {
+                JSONArray pageItems = new JSONArray();
+                for (int i = startIndex; i < end; i++) {
+                    JSONObject item = new JSONObject(items.getJSONObject(i % items.length()).toString());
+                    if (i >= items.length()) {
+                        // Repeated items need ids of their own, as every result has in the real API
+                        item.put("id", item.optString("id") + "-" + (i / items.length()));
+                    }
+                    pageItems.put(item);
+                }
+                // Past the last result the API leaves the items out altogether
+                page.put("items", pageItems);
+            }
+            return page.toString().replace(RECORDED_COVER_HOST.replace("/", "\\/"), getBaseUrl().replace("/", "\\/"))
+                    .replace(RECORDED_COVER_HOST, getBaseUrl());
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void send(OutputStream outputStream, int code, String reason, String contentType, String extraHeaders,
+                      byte[] body, boolean gzip, boolean keepAlive) throws IOException, InterruptedException {
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+            gzipOutputStream.write(body);
+            gzipOutputStream.close();
+            body = compressed.toByteArray();
+        }
+
+        String head = "HTTP/1.1 " + code + " " + reason + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                + extraHeaders
+                + "\r\n";
+        outputStream.write(head.getBytes(UTF_8));
+
+        long limit = bytesPerSecond;
+        if (limit <= 0) {
+            outputStream.write(body);
+        } else {
+            // Send a tenth of a second's worth at a time
+            int chunk = (int) Math.max(1, limit / 10);
+            for (int offset = 0; offset < body.length; offset += chunk) {
+                outputStream.write(body, offset, Math.min(chunk, body.length - offset));
+                outputStream.flush();
+                Thread.sleep(100);
+            }
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * @return the next CRLF terminated line, without its terminator, or null at the end of the stream
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, UTF_8);
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? new String(line.toByteArray(), UTF_8) : null;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String normalize(String query) {
+        return query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+    }
+}
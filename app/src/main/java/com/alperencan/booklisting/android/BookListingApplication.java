@@ -0,0 +1,87 @@
+package com.alperencan.booklisting.android;
+
+import android.app.Application;
+import android.util.Log;
+
+import com.alperencan.booklisting.android.data.VolumeStore;
+import com.alperencan.booklisting.android.sync.SavedSearchSync;
+import com.alperencan.booklisting.android.utils.CircuitBreaker;
+import com.alperencan.booklisting.android.utils.DiskResponseCache;
+import com.alperencan.booklisting.android.utils.FetchExecutor;
+import com.alperencan.booklisting.android.utils.HttpClient;
+import com.alperencan.booklisting.android.utils.MemoryGovernor;
+import com.alperencan.booklisting.android.utils.Metrics;
+import com.alperencan.booklisting.android.utils.QueryUtils;
+import com.alperencan.booklisting.android.utils.RetryPolicy;
+
+import java.io.File;
+
+/**
+ * {@link BookListingApplication} sets up what the search and image pipelines share, once per
+ * process, so that it is the same whether the process was started to show the list or to
+ * refresh the saved searches in the background.
+ */
+public class BookListingApplication extends Application {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = BookListingApplication.class.getSimpleName();
+
+    /**
+     * Name of the directory, under the cache directory, holding the API responses
+     */
+    private static final String RESPONSE_CACHE_DIR = "responses";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Serve repeated searches from disk, revalidating them once they are older than the TTL
+        QueryUtils.setResponseCache(new DiskResponseCache(new File(getCacheDir(), RESPONSE_CACHE_DIR),
+                getResources().getInteger(R.integer.response_cache_size_kb) * 1024L,
+                getResources().getInteger(R.integer.response_cache_ttl_minutes) * 60 * 1000L));
+
+        // Keep every fetched volume, so that searches show local matches before the network answers
+        QueryUtils.setVolumeStore(VolumeStore.getInstance(this));
+
+        // Give memory back as the system runs short of it, rather than get killed in the background
+        MemoryGovernor.install(this);
+
+        // Record where time goes along the search and image pipelines
+        Metrics.setEnabled(getResources().getBoolean(R.bool.metrics_enabled));
+
+        // Run API requests on a dedicated pool rather than the shared AsyncTask executors
+        FetchExecutor.setPoolSize(getResources().getInteger(R.integer.fetch_pool_size));
+
+        // Share one HTTP client, and its keep-alive connections, between API requests and covers
+        HttpClient httpClient = new HttpClient(getResources().getInteger(R.integer.http_connect_timeout_ms),
+                getResources().getInteger(R.integer.http_read_timeout_ms),
+                getResources().getInteger(R.integer.http_max_requests_per_host));
+        if (BuildConfig.DEBUG) {
+            httpClient.setMetricsListener(new HttpClient.MetricsListener() {
+                @Override
+                public void onRequestFinished(HttpClient.Timing timing) {
+                    Log.d(LOG_TAG, timing.toString());
+                }
+            });
+        }
+        HttpClient.setInstance(httpClient);
+
+        // Retry transient API failures with backoff, and fail fast while the API keeps failing
+        QueryUtils.setRetryPolicy(new RetryPolicy(getResources().getInteger(R.integer.retry_max_attempts),
+                getResources().getInteger(R.integer.retry_initial_backoff_ms),
+                getResources().getInteger(R.integer.retry_max_backoff_ms)));
+        QueryUtils.setCircuitBreaker(new CircuitBreaker(getResources().getInteger(R.integer.circuit_failure_threshold),
+                getResources().getInteger(R.integer.circuit_open_ms)));
+
+        // Keep the saved searches fresh in the background, in case the refresh was lost with a
+        // reboot. Off the main thread, as it reads the saved searches from disk.
+        FetchExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                SavedSearchSync.schedule(BookListingApplication.this);
+            }
+        });
+    }
+}
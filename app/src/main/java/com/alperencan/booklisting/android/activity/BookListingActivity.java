@@ -5,30 +5,66 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
+import android.view.MenuItem;
+import android.view.SubMenu;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.alperencan.booklisting.android.R;
+import com.alperencan.booklisting.android.adapter.ThumbnailPrefetcher;
 import com.alperencan.booklisting.android.adapter.VolumeAdapter;
+import com.alperencan.booklisting.android.data.ResultSnapshot;
+import com.alperencan.booklisting.android.data.SavedSearches;
+import com.alperencan.booklisting.android.image.ImageLoader;
 import com.alperencan.booklisting.android.model.Volume;
+import com.alperencan.booklisting.android.sync.SavedSearchSync;
+import com.alperencan.booklisting.android.utils.FetchExecutor;
+import com.alperencan.booklisting.android.utils.FetchResult;
+import com.alperencan.booklisting.android.utils.Metrics;
+import com.alperencan.booklisting.android.utils.QueryResultCache;
 import com.alperencan.booklisting.android.utils.QueryUtils;
+import com.alperencan.booklisting.android.utils.VolumePager;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
-public class BookListingActivity extends AppCompatActivity {
+public class BookListingActivity extends AppCompatActivity implements VolumePager.Listener {
 
     /**
-     * URL for volume data from the Google Books API
+     * Tag for the log messages
      */
-    private static final String GOOGLE_BOOKS_API_BASE_URL = "https://www.googleapis.com/books/v1/volumes?";
+    private static final String LOG_TAG = BookListingActivity.class.getSimpleName();
+
+    /**
+     * Name of the file, under the cache directory, holding the last search and its first results
+     */
+    private static final String SNAPSHOT_FILE = "last_results.bin";
+
+    /**
+     * Time this class was loaded at, standing in for the process start before API 24
+     */
+    private static final long CLASS_LOADED_AT = SystemClock.elapsedRealtime();
+
+    /**
+     * True once the first frame of the process has been drawn
+     */
+    private static boolean firstFrameDrawn;
 
     /**
      * RecyclerView to view the volumes
@@ -45,11 +81,60 @@ public class BookListingActivity extends AppCompatActivity {
      */
     private VolumeAdapter volumeAdapter;
 
+    /**
+     * Loads the covers of the rows about to scroll into view
+     */
+    private ThumbnailPrefetcher thumbnailPrefetcher;
+
+    /**
+     * Loads the results of the current search page by page
+     */
+    private VolumePager volumePager;
+
+    /**
+     * Time the current search started at, in nanoseconds, or 0 once its first results are shown
+     */
+    private long searchStartNanos;
+
+    /**
+     * Search term of the results restored from the last run, or null
+     */
+    private String restoredQuery;
+
+    /**
+     * True while the restored results are shown and being refreshed, so that a failed refresh
+     * leaves them in place
+     */
+    private boolean showingSnapshot;
+
+    /**
+     * Delays live searches until the user stops typing
+     */
+    private final Handler searchHandler = new Handler();
+
+    /**
+     * Search term typed most recently, searched for once the debounce window elapses
+     */
+    private String pendingQuery;
+
+    /**
+     * Searches for the pending query, unless its results are already being shown
+     */
+    private final Runnable liveSearch = new Runnable() {
+        @Override
+        public void run() {
+            if (volumePager == null || !QueryResultCache.normalizeQuery(volumePager.getQuery())
+                    .equals(QueryResultCache.normalizeQuery(pendingQuery))) {
+                search(pendingQuery);
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createStart = Metrics.begin(Metrics.STARTUP_CREATE);
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_book_listing);
-        handleIntent(getIntent());
 
         // Find a reference to the {@link RecyclerView} in the layout
         recyclerView = (RecyclerView) findViewById(R.id.list);
@@ -60,20 +145,123 @@ public class BookListingActivity extends AppCompatActivity {
         LinearLayoutManager linearLayoutManager = new LinearLayoutManager(this);
         recyclerView.setLayoutManager(linearLayoutManager);
 
-        ArrayList<Volume> volumes = new ArrayList<>();
+        // Unless there is a search to pick up or to start, show the results of the last one right away.
+        // The file is a few kilobytes read in one pass, so it is read here to make the first frame.
+        VolumePager retainedPager = (VolumePager) getLastCustomNonConfigurationInstance();
+        ResultSnapshot snapshot = null;
+        if (retainedPager == null && !Intent.ACTION_SEARCH.equals(getIntent().getAction())) {
+            long readStart = Metrics.begin(Metrics.STARTUP_SNAPSHOT_READ);
+            snapshot = ResultSnapshot.read(new File(getCacheDir(), SNAPSHOT_FILE),
+                    getResources().getInteger(R.integer.snapshot_max_volumes));
+            Metrics.end(Metrics.STARTUP_SNAPSHOT_READ, readStart);
+        }
 
-        if (volumes.isEmpty()) {
-            recyclerView.setVisibility(View.GONE);
-            emptyView.setVisibility(View.VISIBLE);
-        } else {
+        // The adapter lives as long as the activity, every new list of volumes is diffed into it
+        volumeAdapter = new VolumeAdapter(snapshot != null ? snapshot.getVolumes() : new ArrayList<Volume>());
+        recyclerView.setAdapter(volumeAdapter);
+
+        // Warm the image cache for the rows ahead of the scroll, unless flinging or on a metered network
+        thumbnailPrefetcher = new ThumbnailPrefetcher(volumeAdapter, ImageLoader.getInstance(this),
+                getResources().getInteger(R.integer.thumbnail_prefetch_rows),
+                getResources().getInteger(R.integer.thumbnail_prefetch_max_velocity_dp)
+                        * getResources().getDisplayMetrics().density);
+        recyclerView.addOnScrollListener(thumbnailPrefetcher);
+
+        if (snapshot != null && !snapshot.getVolumes().isEmpty()) {
             recyclerView.setVisibility(View.VISIBLE);
             emptyView.setVisibility(View.GONE);
+            restoredQuery = snapshot.getQuery();
+        } else {
+            recyclerView.setVisibility(View.GONE);
+            emptyView.setVisibility(View.VISIBLE);
+        }
+
+        // Pick up the search retained from the previous instance, if any, instead of starting it again
+        if (retainedPager != null) {
+            volumePager = retainedPager;
+            recyclerView.addOnScrollListener(volumePager);
+            volumePager.attach(this);
+        } else if (restoredQuery == null) {
+            handleIntent(getIntent());
+        }
+
+        // Refresh the restored results only once they are on screen
+        final View content = findViewById(android.R.id.content);
+        content.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                content.getViewTreeObserver().removeOnPreDrawListener(this);
+                onFirstFrame();
+                return true;
+            }
+        });
+        Metrics.end(Metrics.STARTUP_CREATE, createStart);
+    }
 
-            volumeAdapter = new VolumeAdapter(volumes);
-            recyclerView.setAdapter(volumeAdapter);
+    /**
+     * Record the time from the process start to the first frame, on a cold start, and start
+     * refreshing the restored results, if any, after the frame is drawn.
+     */
+    private void onFirstFrame() {
+        if (!firstFrameDrawn) {
+            firstFrameDrawn = true;
+            long processStart = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                    ? Process.getStartElapsedRealtime() : CLASS_LOADED_AT;
+            Metrics.record(Metrics.STARTUP_FIRST_FRAME, (SystemClock.elapsedRealtime() - processStart) * 1000000);
+            if (restoredQuery != null) {
+                // The frame shows real content, let the system log it as fully drawn
+                reportFullyDrawn();
+            }
+        }
+
+        if (restoredQuery != null) {
+            searchHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    search(restoredQuery);
+                    showingSnapshot = true;
+                }
+            });
         }
     }
 
+    /**
+     * Save the current search and its first results, to show them right away on the next start.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (volumePager == null) {
+            return;
+        }
+
+        List<Volume> volumes = volumePager.getVolumes();
+        if (volumes.isEmpty()) {
+            return;
+        }
+        int maxVolumes = getResources().getInteger(R.integer.snapshot_max_volumes);
+        final ResultSnapshot snapshot = new ResultSnapshot(volumePager.getQuery(),
+                volumes.subList(0, Math.min(maxVolumes, volumes.size())));
+        final File file = new File(getCacheDir(), SNAPSHOT_FILE);
+        FetchExecutor.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.write(file);
+            }
+        });
+    }
+
+    /**
+     * Keep the current search, and the pages it has loaded or is loading, for the next instance.
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        if (volumePager != null) {
+            volumePager.detach();
+        }
+        return volumePager;
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the options menu from XML
@@ -86,74 +274,239 @@ public class BookListingActivity extends AppCompatActivity {
         searchView.setSearchableInfo(searchManager.getSearchableInfo(getComponentName()));
         searchView.setIconifiedByDefault(false); // Do not iconify the widget; expand it by default
         searchView.setSubmitButtonEnabled(true);
+        // Show which search the results are for, including restored ones
+        String shownQuery = volumePager != null ? volumePager.getQuery() : restoredQuery;
+        if (shownQuery != null) {
+            searchView.setQuery(shownQuery, false);
+        }
+
+        if (getResources().getBoolean(R.bool.live_search_enabled)) {
+            final int debounceMillis = getResources().getInteger(R.integer.live_search_debounce_ms);
+            final int minLength = getResources().getInteger(R.integer.live_search_min_length);
+
+            searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+                @Override
+                public boolean onQueryTextSubmit(String query) {
+                    // The submitted search is handled through ACTION_SEARCH right away
+                    searchHandler.removeCallbacks(liveSearch);
+                    return false;
+                }
+
+                @Override
+                public boolean onQueryTextChange(String newText) {
+                    // Restart the debounce window on every keystroke
+                    searchHandler.removeCallbacks(liveSearch);
+                    if (TextUtils.getTrimmedLength(newText) >= minLength) {
+                        pendingQuery = newText;
+                        searchHandler.postDelayed(liveSearch, debounceMillis);
+                    }
+                    return true;
+                }
+            });
+        }
 
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Offer to save the search shown, or to forget it if it is saved
+        MenuItem saveItem = menu.findItem(R.id.save_search);
+        String shownQuery = volumePager != null ? volumePager.getQuery() : restoredQuery;
+        saveItem.setVisible(!QueryResultCache.normalizeQuery(shownQuery).isEmpty());
+        saveItem.setTitle(SavedSearches.getInstance(this).contains(shownQuery)
+                ? R.string.remove_saved_search : R.string.save_search);
+
+        // List the saved searches, to open them straight from the caches they are kept fresh in
+        List<String> savedQueries = SavedSearches.getInstance(this).getQueries();
+        MenuItem savedItem = menu.findItem(R.id.saved_searches);
+        savedItem.setVisible(!savedQueries.isEmpty());
+        SubMenu subMenu = savedItem.getSubMenu();
+        subMenu.clear();
+        for (String savedQuery : savedQueries) {
+            subMenu.add(R.id.saved_search, Menu.NONE, Menu.NONE, savedQuery);
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        }
+        if (item.getItemId() == R.id.save_search) {
+            toggleSavedSearch(volumePager != null ? volumePager.getQuery() : restoredQuery);
+            return true;
+        }
+        if (item.getGroupId() == R.id.saved_search) {
+            search(item.getTitle().toString());
+            // Show the search opened in the search box
+            invalidateOptionsMenu();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Save the given search term, or forget it if it is saved, and schedule or cancel the
+     * background refresh of the saved searches accordingly.
+     */
+    private void toggleSavedSearch(String query) {
+        SavedSearches savedSearches = SavedSearches.getInstance(this);
+        if (savedSearches.contains(query)) {
+            savedSearches.remove(query);
+        } else if (!savedSearches.add(query)) {
+            Toast.makeText(this, getString(R.string.too_many_saved_searches,
+                    getResources().getInteger(R.integer.max_saved_searches)), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        SavedSearchSync.schedule(this);
+    }
+
+    /**
+     * Write the metrics along with the activity's state, for
+     * {@code adb shell dumpsys activity com.alperencan.booklisting.android}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Metrics.dump(writer);
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         handleIntent(intent);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacks(liveSearch);
+        thumbnailPrefetcher.cancel();
+        if (volumePager != null && !isChangingConfigurations()) {
+            volumePager.cancel();
+        }
+    }
+
     private void handleIntent(Intent intent) {
 
         if (Intent.ACTION_SEARCH.equals(intent.getAction())) {
-            String query = intent.getStringExtra(SearchManager.QUERY);
+            search(intent.getStringExtra(SearchManager.QUERY));
+        }
+    }
 
-            // Get a reference to the ConnectivityManager to check state of network connectivity
-            ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+    /**
+     * Show the results for the given search term. The previous search, if any, is cancelled
+     * along with its HTTP request, so only the results of the latest search are shown.
+     */
+    private void search(String query) {
+        searchStartNanos = System.nanoTime();
+        showingSnapshot = false;
+        long connectivityStart = Metrics.begin(Metrics.SEARCH_CONNECTIVITY);
 
-            // Get details on the currently active default data network
-            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        // Get a reference to the ConnectivityManager to check state of network connectivity
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
 
-            if (networkInfo != null && networkInfo.isConnected()) {
-                // Start the AsyncTask to fetch the volume data for search term
-                VolumeAsyncTask task = new VolumeAsyncTask();
-                task.execute(GOOGLE_BOOKS_API_BASE_URL, query);
-            } else {
-                emptyView.setText(R.string.no_internet_connection);
+        // Get details on the currently active default data network
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        Metrics.end(Metrics.SEARCH_CONNECTIVITY, connectivityStart);
 
-                recyclerView.setVisibility(View.GONE);
-                emptyView.setVisibility(View.VISIBLE);
-            }
+        // Stop paging the previous search, if any
+        if (volumePager != null) {
+            recyclerView.removeOnScrollListener(volumePager);
+            volumePager.cancel();
         }
+        thumbnailPrefetcher.cancel();
+
+        // Start fetching the volume data for search term, one page at a time.
+        // Without a network, previously cached pages are still served.
+        volumePager = new VolumePager(QueryUtils.getGoogleBooksApiBaseUrl(), query,
+                getResources().getInteger(R.integer.page_size),
+                getResources().getInteger(R.integer.prefetch_distance), this);
+        volumePager.setOffline(networkInfo == null || !networkInfo.isConnected());
+        // Show volumes as they are parsed, so the first rows don't wait for the whole response
+        volumePager.setStreamBatchSize(getResources().getInteger(R.integer.stream_batch_size));
+        recyclerView.addOnScrollListener(volumePager);
+        volumePager.loadNextPage();
     }
 
-    private class VolumeAsyncTask extends AsyncTask<String, Void, List<Volume>> {
+    /**
+     * This method runs on the main UI thread each time a page of results, or a batch of a page
+     * streamed as it is parsed, has been loaded. Results starting at index 0 replace the list
+     * of volumes, later ones are appended to it. Both only notify the adapter about the rows
+     * that changed.
+     */
+    @Override
+    public void onPageLoaded(int startIndex, List<Volume> volumes) {
+        if (startIndex > 0) {
+            volumeAdapter.appendVolumes(volumes);
+            return;
+        }
 
-        /**
-         * This method runs on a background thread and performs the network request.
-         * We should not update the UI from a background thread, so we return a list of
-         * {@link Volume}s as the result.
-         */
-        @Override
-        protected List<Volume> doInBackground(String... params) {
-            // Don't perform the request if there are no URLs, or the first URL is null
-            if (params.length < 1 || params[0] == null) {
-                return null;
-            }
+        showingSnapshot = false;
+        if (searchStartNanos != 0) {
+            // From the search being submitted to its first rows, local or from the network
+            Metrics.record(Metrics.SEARCH_FIRST_RESULTS, System.nanoTime() - searchStartNanos);
+            searchStartNanos = 0;
+        }
+
+        if (!volumes.isEmpty()) {
+            recyclerView.setVisibility(View.VISIBLE);
+            emptyView.setVisibility(View.GONE);
 
-            return QueryUtils.fetchVolumeData(params[0], params[1]);
+            volumeAdapter.setVolumes(volumes);
+        } else {
+            showEmptyView(R.string.no_data_available);
         }
+    }
 
-        /**
-         * This method runs on the main UI thread after the background work has been
-         * completed. This method receives as input, the return value from the doInBackground()
-         * method. We update the adapter with the new list of volumes, which will trigger
-         * the RecyclerView to re-populate its items.
-         */
-        @Override
-        protected void onPostExecute(List<Volume> volumes) {
-            if (volumes != null && !volumes.isEmpty()) {
-                recyclerView.setVisibility(View.VISIBLE);
-                emptyView.setVisibility(View.GONE);
-
-                volumeAdapter = new VolumeAdapter(volumes);
-                recyclerView.setAdapter(volumeAdapter);
-            } else {
-                recyclerView.setVisibility(View.GONE);
-                emptyView.setVisibility(View.VISIBLE);
-            }
+    /**
+     * This method runs on the main UI thread each time a page of results could not be loaded.
+     * A failed first page is explained in place of the list. A failed later page leaves the
+     * list as it is, and is requested again when the user scrolls to its end.
+     */
+    @Override
+    public void onPageFailed(int startIndex, FetchResult.Error error) {
+        if (startIndex > 0) {
+            return;
+        }
+        if (showingSnapshot) {
+            // Keep showing the restored results rather than an error in their place
+            return;
         }
+
+        switch (error) {
+            case OFFLINE:
+                showEmptyView(R.string.no_internet_connection);
+                break;
+            case NETWORK:
+                showEmptyView(R.string.network_error);
+                break;
+            case RATE_LIMITED:
+                showEmptyView(R.string.rate_limited_error);
+                break;
+            case SERVER:
+            case CIRCUIT_OPEN:
+                showEmptyView(R.string.server_error);
+                break;
+            case CANCELLED:
+                break;
+            default:
+                showEmptyView(R.string.no_data_available);
+                break;
+        }
+    }
+
+    /**
+     * Clear the list and show the given message in its place.
+     */
+    private void showEmptyView(int messageResId) {
+        volumeAdapter.setVolumes(new ArrayList<Volume>());
+
+        emptyView.setText(messageResId);
+
+        recyclerView.setVisibility(View.GONE);
+        emptyView.setVisibility(View.VISIBLE);
     }
 }
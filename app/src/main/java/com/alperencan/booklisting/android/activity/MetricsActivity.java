@@ -0,0 +1,81 @@
+package com.alperencan.booklisting.android.activity;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import com.alperencan.booklisting.android.R;
+import com.alperencan.booklisting.android.utils.Metrics;
+import com.alperencan.booklisting.android.utils.QueryResultCache;
+import com.alperencan.booklisting.android.utils.QueryUtils;
+
+/**
+ * {@link MetricsActivity} shows the spans and counters recorded by {@link Metrics}, along with
+ * the cache and resilience statistics, in the same format as the dumpsys output. They can be
+ * shared as text, to attach them to a bug report.
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    /**
+     * TextView showing the metrics
+     */
+    private TextView metricsView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        metricsView = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.metrics_refresh:
+                refresh();
+                return true;
+            case R.id.metrics_share:
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/plain");
+                intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.metrics_title));
+                intent.putExtra(Intent.EXTRA_TEXT, report());
+                startActivity(Intent.createChooser(intent, getString(R.string.metrics_share)));
+                return true;
+            case R.id.metrics_reset:
+                Metrics.reset();
+                refresh();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void refresh() {
+        metricsView.setText(report());
+    }
+
+    /**
+     * @return the metrics, followed by the cache and resilience statistics
+     */
+    private static String report() {
+        return Metrics.dump()
+                + "# results cache " + QueryResultCache.getInstance().getStats() + "\n"
+                + "# " + QueryUtils.getResilienceStats() + "\n";
+    }
+}
@@ -0,0 +1,152 @@
+package com.alperencan.booklisting.android.adapter;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.alperencan.booklisting.android.image.ImageLoader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link ThumbnailPrefetcher} loads the covers of the rows about to scroll into view, so that
+ * they are in memory by the time the rows are bound. Attached to a {@link RecyclerView} showing
+ * a {@link VolumeAdapter} as a scroll listener, it follows the direction of the scroll and
+ * prefetches the covers of the next rows in that direction.
+ *
+ * Nothing is prefetched while the list moves faster than a given velocity, as during a fling
+ * most of the rows ahead are never seen, nor while the active network is metered. Prefetches
+ * that are no longer ahead of the visible rows are cancelled.
+ */
+public class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    /**
+     * Weight of the latest scroll event in the smoothed velocity
+     */
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final VolumeAdapter volumeAdapter;
+    private final ImageLoader imageLoader;
+    private final int prefetchRows;
+    private final float maxVelocity;
+
+    /** Velocity of the list in pixels per second, positive towards the end of the list */
+    private float velocity;
+
+    /** Time of the previous scroll event, or 0 if the list is at rest */
+    private long lastScrollTime;
+
+    /** Direction of the latest scroll, 1 towards the end of the list and -1 towards its start */
+    private int direction = 1;
+
+    /** True if the active network was metered when the current scroll started */
+    private boolean metered;
+
+    /** URLs passed to the latest prefetch, or empty if nothing is being prefetched */
+    private List<String> prefetchedUrls = Collections.emptyList();
+
+    /**
+     * Constructs a new {@link ThumbnailPrefetcher}.
+     *
+     * @param volumeAdapter is the adapter of the list whose covers are prefetched
+     * @param imageLoader is the loader the covers are prefetched with
+     * @param prefetchRows is the number of rows ahead of the visible ones whose covers are prefetched
+     * @param maxVelocity is the velocity in pixels per second above which nothing is prefetched
+     */
+    public ThumbnailPrefetcher(VolumeAdapter volumeAdapter, ImageLoader imageLoader, int prefetchRows,
+                               float maxVelocity) {
+        this.volumeAdapter = volumeAdapter;
+        this.imageLoader = imageLoader;
+        this.prefetchRows = prefetchRows;
+        this.maxVelocity = maxVelocity;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_DRAGGING) {
+            // Checked once per gesture rather than on every scroll event
+            metered = isActiveNetworkMetered(recyclerView.getContext());
+        } else if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            velocity = 0;
+            lastScrollTime = 0;
+            prefetch(recyclerView);
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // Also called with no movement when the visible rows change after a layout
+        if (dy != 0) {
+            long now = SystemClock.uptimeMillis();
+            if (lastScrollTime != 0 && now > lastScrollTime) {
+                float instantVelocity = dy * 1000f / (now - lastScrollTime);
+                velocity += VELOCITY_SMOOTHING * (instantVelocity - velocity);
+            }
+            lastScrollTime = now;
+            direction = dy > 0 ? 1 : -1;
+        } else if (recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+            metered = isActiveNetworkMetered(recyclerView.getContext());
+        }
+        prefetch(recyclerView);
+    }
+
+    /**
+     * Stop prefetching, for instance before the list is replaced.
+     */
+    public void cancel() {
+        if (!prefetchedUrls.isEmpty()) {
+            prefetchedUrls = Collections.emptyList();
+            imageLoader.prefetch(prefetchedUrls, 0, 0);
+        }
+    }
+
+    /**
+     * Prefetch the covers of the rows ahead of the visible ones, in the direction of the scroll.
+     */
+    private void prefetch(RecyclerView recyclerView) {
+        if (metered || Math.abs(velocity) > maxVelocity) {
+            cancel();
+            return;
+        }
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int firstVisiblePosition = layoutManager.findFirstVisibleItemPosition();
+        int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+        if (firstVisiblePosition == RecyclerView.NO_POSITION) {
+            cancel();
+            return;
+        }
+
+        // The covers of the prefetched rows are decoded at the size of the visible ones
+        VolumeAdapter.VolumeViewHolder holder = (VolumeAdapter.VolumeViewHolder)
+                recyclerView.findViewHolderForAdapterPosition(firstVisiblePosition);
+        if (holder == null || holder.coverImageView.getWidth() == 0) {
+            return;
+        }
+
+        List<String> urls = new ArrayList<>(prefetchRows);
+        int coverWidth = holder.coverImageView.getWidth();
+        int itemCount = volumeAdapter.getItemCount();
+        for (int i = 1; i <= prefetchRows; i++) {
+            int position = direction > 0 ? lastVisiblePosition + i : firstVisiblePosition - i;
+            if (position < 0 || position >= itemCount) {
+                break;
+            }
+            urls.add(volumeAdapter.getVolume(position).getCoverImageUrl(coverWidth));
+        }
+
+        if (!urls.equals(prefetchedUrls)) {
+            prefetchedUrls = urls;
+            imageLoader.prefetch(urls, coverWidth, holder.coverImageView.getHeight());
+        }
+    }
+
+    private static boolean isActiveNetworkMetered(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivityManager.isActiveNetworkMetered();
+    }
+}
@@ -1,10 +1,9 @@
 package com.alperencan.booklisting.android.adapter;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,62 +11,135 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.alperencan.booklisting.android.R;
+import com.alperencan.booklisting.android.image.ImageLoader;
 import com.alperencan.booklisting.android.model.Volume;
+import com.alperencan.booklisting.android.utils.Metrics;
 
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * {@link VolumeAdapter} creates VolumeViewHolder classes as needed and binds them to their data.
+ * New lists are diffed against the current one on a background thread, using the Books API
+ * volume id as each row's identity, and only the rows that changed are notified.
  */
 
 public class VolumeAdapter extends RecyclerView.Adapter<VolumeAdapter.VolumeViewHolder> {
 
+    /**
+     * Thread the differences between lists are computed on
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
     private List<Volume> volumes;
 
+    /** List being diffed against {@link #volumes}, or null if there is none */
+    private List<Volume> pendingVolumes;
+
+    /** Incremented for every new diff, so that results of superseded diffs are dropped */
+    private int diffGeneration;
+
+    /** Loads cover images into the rows, shared by every adapter */
+    private ImageLoader imageLoader;
+
+    /** Width of the cover images in the rows, in pixels, to pick the cover variant to load */
+    private int coverWidth;
+
     public VolumeAdapter(List<Volume> volumes) {
-        this.volumes = volumes;
+        this.volumes = new ArrayList<>(volumes);
+    }
+
+    /**
+     * Replace the list of volumes. The differences to the current list are computed in the
+     * background, then dispatched as insert, remove, move and change notifications.
+     */
+    public void setVolumes(List<Volume> newVolumes) {
+        pendingVolumes = new ArrayList<>(newVolumes);
+        dispatchDiff();
     }
 
+    /**
+     * Add a page of volumes to the end of the list.
+     */
+    public void appendVolumes(List<Volume> page) {
+        if (pendingVolumes != null) {
+            // The page belongs after the list being diffed, diff again with the page included
+            pendingVolumes.addAll(page);
+            dispatchDiff();
+            return;
+        }
+
+        int positionStart = volumes.size();
+        volumes.addAll(page);
+        notifyItemRangeInserted(positionStart, page.size());
+    }
+
+    private void dispatchDiff() {
+        final int generation = ++diffGeneration;
+        final List<Volume> oldVolumes = new ArrayList<>(volumes);
+        final List<Volume> newVolumes = new ArrayList<>(pendingVolumes);
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new VolumeDiffCallback(oldVolumes, newVolumes));
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != diffGeneration) {
+                            return;
+                        }
+                        volumes = newVolumes;
+                        pendingVolumes = null;
+                        result.dispatchUpdatesTo(VolumeAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+
     @Override
     public VolumeViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        if (imageLoader == null) {
+            imageLoader = ImageLoader.getInstance(parent.getContext());
+        }
+
         View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
 
-        return new VolumeViewHolder(itemView);
+        VolumeViewHolder holder = new VolumeViewHolder(itemView);
+        if (coverWidth == 0) {
+            coverWidth = holder.coverImageView.getLayoutParams().width;
+        }
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(VolumeViewHolder holder, int position) {
+        long bindStart = Metrics.begin(Metrics.ADAPTER_BIND);
         Volume volume = volumes.get(position);
         holder.titleTextView.setText(volume.getTitle());
+        holder.authorsTextView.setText(volume.getAuthorsText());
 
-        String authors = "";
-        for (String author : volume.getAuthors()) {
-            authors += author;
-            if (!author.equals(volume.getAuthors()[volume.getAuthors().length - 1])) {
-                authors += ", ";
-            }
-        }
-        holder.authorsTextView.setText(authors);
-
-        // Don't show any image before the correct one is downloaded
-        holder.coverImageView.setImageBitmap(null);
-
-        if (holder.task != null) { // Existing task may be executing
-            holder.task.cancel(true);
-            holder.task = null;
-        }
+        imageLoader.load(volume.getCoverImageUrl(coverWidth), holder.coverImageView);
+        Metrics.end(Metrics.ADAPTER_BIND, bindStart);
+    }
 
-        if (volume.getCoverImage() == null) { // Image not downloaded already
-            DownloadImageTask task = new DownloadImageTask(holder.coverImageView);
-            holder.task = task;
-            task.execute(volume);
-        } else {
-            holder.coverImageView.setImageBitmap(volume.getCoverImage());
-        }
+    @Override
+    public void onViewRecycled(VolumeViewHolder holder) {
+        // The row no longer needs its cover, let the loader drop the request if nobody else does
+        imageLoader.cancel(holder.coverImageView);
+    }
 
+    /**
+     * @return the volume shown at the given position
+     */
+    public Volume getVolume(int position) {
+        return volumes.get(position);
     }
 
     @Override
@@ -81,7 +153,6 @@ public class VolumeAdapter extends RecyclerView.Adapter<VolumeAdapter.VolumeView
         public TextView authorsTextView;
         public ImageView coverImageView;
         public View layout;
-        public AsyncTask<?, ?, ?> task;
 
 
         public VolumeViewHolder(View itemView) {
@@ -95,57 +166,42 @@ public class VolumeAdapter extends RecyclerView.Adapter<VolumeAdapter.VolumeView
         }
     }
 
-    private class DownloadImageTask extends AsyncTask<Volume, Void, Volume> {
+    /**
+     * Compares two lists of volumes, identifying volumes by their Books API id.
+     */
+    private static class VolumeDiffCallback extends DiffUtil.Callback {
 
-        private ImageView imageView;
+        private final List<Volume> oldVolumes;
+        private final List<Volume> newVolumes;
 
-        public DownloadImageTask(ImageView imageView) {
-            this.imageView = imageView;
+        VolumeDiffCallback(List<Volume> oldVolumes, List<Volume> newVolumes) {
+            this.oldVolumes = oldVolumes;
+            this.newVolumes = newVolumes;
         }
+
         @Override
-        protected Volume doInBackground(Volume... volumes) {
-            Volume volume = volumes[0];
-            volume.setCoverImage(downloadBitmap(volume.getCoverImageUrl()));
-            return volume;
+        public int getOldListSize() {
+            return oldVolumes.size();
         }
 
         @Override
-        protected void onPostExecute(Volume volume) {
-            // Update the ImageView with the downloaded image
-            imageView.setImageBitmap(volume.getCoverImage());
+        public int getNewListSize() {
+            return newVolumes.size();
         }
 
-        /*
-        I have found the following code snippet from StackOverflow (https://stackoverflow.com/a/32983958)
-         */
-        private Bitmap downloadBitmap(String url) {
-            HttpURLConnection urlConnection = null;
-            try {
-                URL uri = new URL(url);
-                urlConnection = (HttpURLConnection) uri.openConnection();
-
-                int statusCode = urlConnection.getResponseCode();
-                if (statusCode != HttpURLConnection.HTTP_OK) {
-                    return null;
-                }
-
-                InputStream inputStream = urlConnection.getInputStream();
-                if (inputStream != null) {
-                    return BitmapFactory.decodeStream(inputStream);
-                }
-            } catch (Exception e) {
-                Log.d("URLCONNECTIONERROR", e.toString());
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-                }
-                Log.w("ImageDownloader", "Error downloading image from " + url);
-            } finally {
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-
-                }
-            }
-            return null;
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldVolumes.get(oldItemPosition).getId().equals(newVolumes.get(newItemPosition).getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Volume oldVolume = oldVolumes.get(oldItemPosition);
+            Volume newVolume = newVolumes.get(newItemPosition);
+            return oldVolume.getTitle().equals(newVolume.getTitle())
+                    && oldVolume.getAuthorsText().equals(newVolume.getAuthorsText())
+                    && oldVolume.getCoverImageUrl().equals(newVolume.getCoverImageUrl())
+                    && oldVolume.getSmallCoverImageUrl().equals(newVolume.getSmallCoverImageUrl());
         }
     }
 }
\ No newline at end of file
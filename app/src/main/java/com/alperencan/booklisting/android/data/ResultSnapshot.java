@@ -0,0 +1,164 @@
+package com.alperencan.booklisting.android.data;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.alperencan.booklisting.android.model.Volume;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link ResultSnapshot} is the last search term and the first of its results, saved to a
+ * small binary file so that they can be shown as soon as the app starts again. The file holds
+ * a header, the search term and the volumes' strings, and is read in one pass without any
+ * parsing. It is replaced atomically, so a write interrupted by the process being killed
+ * leaves the previous snapshot intact.
+ */
+public final class ResultSnapshot {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ResultSnapshot.class.getSimpleName();
+
+    /** First bytes of a snapshot file, "BKSN" */
+    private static final int MAGIC = 0x424b534e;
+
+    /** Version of the file format, incremented whenever it changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Search term the volumes were found for */
+    private final String query;
+
+    /** Volumes found, in the order they were shown */
+    private final List<Volume> volumes;
+
+    /** Time the snapshot was taken, in milliseconds since the epoch */
+    private final long savedAt;
+
+    /**
+     * Constructs a new {@link ResultSnapshot} taken now.
+     *
+     * @param query is the search term the volumes were found for
+     * @param volumes are the volumes found, in the order they were shown
+     */
+    public ResultSnapshot(String query, List<Volume> volumes) {
+        this(query, volumes, System.currentTimeMillis());
+    }
+
+    private ResultSnapshot(String query, List<Volume> volumes, long savedAt) {
+        this.query = query;
+        this.volumes = Collections.unmodifiableList(new ArrayList<>(volumes));
+        this.savedAt = savedAt;
+    }
+
+    /**
+     * @param maxVolumes is the largest number of volumes a snapshot can hold; a file claiming
+     *                   more is corrupt and is not read any further
+     * @return the snapshot saved in the given file, or null if there is none or it cannot be read
+     */
+    public static ResultSnapshot read(File file, int maxVolumes) {
+        AtomicFile atomicFile = new AtomicFile(file);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(atomicFile.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            long savedAt = in.readLong();
+            String query = in.readUTF();
+            int count = in.readInt();
+            if (count < 0 || count > maxVolumes) {
+                Log.w(LOG_TAG, "Result snapshot holds " + count + " volumes, discarding it.");
+                return null;
+            }
+            List<Volume> volumes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                volumes.add(Volume.fromAuthorsText(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+                        in.readUTF()));
+            }
+            return new ResultSnapshot(query, volumes, savedAt);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem reading the result snapshot.", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Save the snapshot to the given file, replacing the one saved before. Must not be called
+     * on the main thread.
+     */
+    public void write(File file) {
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(savedAt);
+            out.writeUTF(query);
+            out.writeInt(volumes.size());
+            for (Volume volume : volumes) {
+                out.writeUTF(nonNull(volume.getId()));
+                out.writeUTF(nonNull(volume.getTitle()));
+                out.writeUTF(nonNull(volume.getAuthorsText()));
+                out.writeUTF(nonNull(volume.getCoverImageUrl()));
+                out.writeUTF(nonNull(volume.getSmallCoverImageUrl()));
+            }
+            out.flush();
+            atomicFile.finishWrite(fileOutputStream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem writing the result snapshot.", e);
+            if (fileOutputStream != null) {
+                atomicFile.failWrite(fileOutputStream);
+            }
+        }
+    }
+
+    /**
+     * @return the search term the volumes were found for
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the volumes found, in the order they were shown
+     */
+    public List<Volume> getVolumes() {
+        return volumes;
+    }
+
+    /**
+     * @return the time the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    private static String nonNull(String string) {
+        return string == null ? "" : string;
+    }
+}
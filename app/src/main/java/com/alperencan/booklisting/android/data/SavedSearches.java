@@ -0,0 +1,119 @@
+package com.alperencan.booklisting.android.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.alperencan.booklisting.android.R;
+import com.alperencan.booklisting.android.utils.QueryResultCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link SavedSearches} keeps the search terms the user saved, to refresh them in the background
+ * and open them from the menu. They are kept in {@link SharedPreferences} as typed, and two
+ * terms differing only in case or spacing are the same saved search.
+ */
+public final class SavedSearches {
+
+    /** Name of the preferences file holding the saved searches */
+    private static final String PREFERENCES_NAME = "saved_searches";
+
+    /** Key of the set of saved search terms */
+    private static final String KEY_QUERIES = "queries";
+
+    private static SavedSearches instance;
+
+    private final SharedPreferences preferences;
+    private final int maxSearches;
+
+    /**
+     * Constructs a new {@link SavedSearches}.
+     *
+     * @param preferences are the preferences the searches are kept in
+     * @param maxSearches is the maximum number of searches that can be saved
+     */
+    public SavedSearches(SharedPreferences preferences, int maxSearches) {
+        this.preferences = preferences;
+        this.maxSearches = maxSearches;
+    }
+
+    /**
+     * @return the shared {@link SavedSearches}
+     */
+    public static synchronized SavedSearches getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            instance = new SavedSearches(applicationContext.getSharedPreferences(PREFERENCES_NAME,
+                    Context.MODE_PRIVATE), applicationContext.getResources().getInteger(R.integer.max_saved_searches));
+        }
+        return instance;
+    }
+
+    /**
+     * @return the saved search terms, in alphabetical order
+     */
+    public synchronized List<String> getQueries() {
+        List<String> queries = new ArrayList<>(preferences.getStringSet(KEY_QUERIES,
+                Collections.<String>emptySet()));
+        Collections.sort(queries, String.CASE_INSENSITIVE_ORDER);
+        return queries;
+    }
+
+    /**
+     * @return true if the given search term is saved
+     */
+    public synchronized boolean contains(String query) {
+        return find(query) != null;
+    }
+
+    /**
+     * Save the given search term, unless it is saved already.
+     *
+     * @return false if it could not be saved, because it is blank or too many searches are saved
+     */
+    public synchronized boolean add(String query) {
+        if (QueryResultCache.normalizeQuery(query).isEmpty()) {
+            return false;
+        }
+        if (contains(query)) {
+            return true;
+        }
+
+        Set<String> queries = new HashSet<>(preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet()));
+        if (queries.size() >= maxSearches) {
+            return false;
+        }
+        queries.add(query.trim());
+        preferences.edit().putStringSet(KEY_QUERIES, queries).apply();
+        return true;
+    }
+
+    /**
+     * Forget the given search term, if it is saved.
+     */
+    public synchronized void remove(String query) {
+        String saved = find(query);
+        if (saved != null) {
+            Set<String> queries = new HashSet<>(preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet()));
+            queries.remove(saved);
+            preferences.edit().putStringSet(KEY_QUERIES, queries).apply();
+        }
+    }
+
+    /**
+     * @return the saved search term the same as the given one, or null if there is none
+     */
+    private String find(String query) {
+        String key = QueryResultCache.normalizeQuery(query);
+        for (String saved : preferences.getStringSet(KEY_QUERIES, Collections.<String>emptySet())) {
+            if (QueryResultCache.normalizeQuery(saved).equals(key)) {
+                return saved;
+            }
+        }
+        return null;
+    }
+}
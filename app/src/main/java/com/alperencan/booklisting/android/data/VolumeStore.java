@@ -0,0 +1,236 @@
+package com.alperencan.booklisting.android.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.alperencan.booklisting.android.model.Volume;
+import com.alperencan.booklisting.android.utils.QueryResultCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link VolumeStore} keeps every {@link Volume} fetched from the Google Books API in a local
+ * SQLite database, with a full-text index over titles and authors. Searches are answered from
+ * it immediately, before and without any network request, and it survives the process.
+ *
+ * The index is an FTS4 table over the volumes table, kept in sync by triggers. The store is
+ * bounded in rows and drops the volumes fetched longest ago first.
+ * Its methods block on disk and must not be called on the main thread.
+ */
+public class VolumeStore extends SQLiteOpenHelper {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = VolumeStore.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "volumes.db";
+    private static final int DATABASE_VERSION = 2;
+
+    /**
+     * Default maximum number of volumes kept
+     */
+    private static final int DEFAULT_MAX_VOLUMES = 2000;
+
+    private static final String TABLE_VOLUMES = "volumes";
+    private static final String TABLE_VOLUMES_FTS = "volumes_fts";
+
+    private static final String COLUMN_ROW_ID = "_id";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHORS = "authors";
+    private static final String COLUMN_COVER_URL = "cover_url";
+    private static final String COLUMN_SMALL_COVER_URL = "small_cover_url";
+    private static final String COLUMN_UPDATED_AT = "updated_at";
+
+    private static VolumeStore instance;
+
+    /** Maximum number of volumes kept */
+    private final int maxVolumes;
+
+    /**
+     * Constructs a new {@link VolumeStore}.
+     *
+     * @param context is used to locate the database
+     * @param name is the name of the database file, or null for an in-memory database
+     * @param maxVolumes is the maximum number of volumes kept
+     */
+    public VolumeStore(Context context, String name, int maxVolumes) {
+        super(context, name, null, DATABASE_VERSION);
+        this.maxVolumes = maxVolumes;
+    }
+
+    /**
+     * @return the process-wide {@link VolumeStore}
+     */
+    public static synchronized VolumeStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new VolumeStore(context.getApplicationContext(), DATABASE_NAME, DEFAULT_MAX_VOLUMES);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_VOLUMES + " ("
+                + COLUMN_ROW_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL UNIQUE, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHORS + " TEXT NOT NULL, "
+                + COLUMN_COVER_URL + " TEXT NOT NULL, "
+                + COLUMN_SMALL_COVER_URL + " TEXT NOT NULL, "
+                + COLUMN_UPDATED_AT + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX volumes_updated_at ON " + TABLE_VOLUMES + " (" + COLUMN_UPDATED_AT + ")");
+
+        // External content FTS table: the text lives once, in the volumes table
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_VOLUMES_FTS + " USING fts4(content=\"" + TABLE_VOLUMES
+                + "\", " + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ")");
+        db.execSQL("CREATE TRIGGER volumes_before_update BEFORE UPDATE ON " + TABLE_VOLUMES + " BEGIN "
+                + "DELETE FROM " + TABLE_VOLUMES_FTS + " WHERE docid = old." + COLUMN_ROW_ID + "; END");
+        db.execSQL("CREATE TRIGGER volumes_before_delete BEFORE DELETE ON " + TABLE_VOLUMES + " BEGIN "
+                + "DELETE FROM " + TABLE_VOLUMES_FTS + " WHERE docid = old." + COLUMN_ROW_ID + "; END");
+        db.execSQL("CREATE TRIGGER volumes_after_update AFTER UPDATE ON " + TABLE_VOLUMES + " BEGIN "
+                + "INSERT INTO " + TABLE_VOLUMES_FTS + " (docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ") "
+                + "VALUES (new." + COLUMN_ROW_ID + ", new." + COLUMN_TITLE + ", new." + COLUMN_AUTHORS + "); END");
+        db.execSQL("CREATE TRIGGER volumes_after_insert AFTER INSERT ON " + TABLE_VOLUMES + " BEGIN "
+                + "INSERT INTO " + TABLE_VOLUMES_FTS + " (docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ") "
+                + "VALUES (new." + COLUMN_ROW_ID + ", new." + COLUMN_TITLE + ", new." + COLUMN_AUTHORS + "); END");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The store only holds copies of API results, so it is simply rebuilt
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_VOLUMES_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_VOLUMES);
+        onCreate(db);
+    }
+
+    /**
+     * Store the given volumes, replacing the stored copies of those already known.
+     * Volumes without an id are skipped.
+     */
+    public void put(List<Volume> volumes) {
+        if (volumes == null || volumes.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            SQLiteDatabase db = getWritableDatabase();
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_VOLUMES + " SET "
+                    + COLUMN_TITLE + " = ?, " + COLUMN_AUTHORS + " = ?, " + COLUMN_COVER_URL + " = ?, "
+                    + COLUMN_SMALL_COVER_URL + " = ?, " + COLUMN_UPDATED_AT + " = ? WHERE " + COLUMN_VOLUME_ID + " = ?");
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + TABLE_VOLUMES + " ("
+                    + COLUMN_TITLE + ", " + COLUMN_AUTHORS + ", " + COLUMN_COVER_URL + ", " + COLUMN_SMALL_COVER_URL
+                    + ", " + COLUMN_UPDATED_AT + ", " + COLUMN_VOLUME_ID + ") VALUES (?, ?, ?, ?, ?, ?)");
+            db.beginTransaction();
+            try {
+                for (Volume volume : volumes) {
+                    if (TextUtils.isEmpty(volume.getId())) {
+                        continue;
+                    }
+                    bind(update, volume, now);
+                    if (update.executeUpdateDelete() == 0) {
+                        bind(insert, volume, now);
+                        insert.executeInsert();
+                    }
+                }
+                trim(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                update.close();
+                insert.close();
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem storing volumes.", e);
+        }
+    }
+
+    /**
+     * @return up to the given number of stored volumes whose title or authors contain words
+     * starting with every word of the given search term, most recently fetched first
+     */
+    public List<Volume> search(String query, int limit) {
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Volume> volumes = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery("SELECT v." + COLUMN_VOLUME_ID + ", v." + COLUMN_TITLE
+                            + ", v." + COLUMN_AUTHORS + ", v." + COLUMN_COVER_URL + ", v." + COLUMN_SMALL_COVER_URL
+                            + " FROM " + TABLE_VOLUMES + " v JOIN " + TABLE_VOLUMES_FTS + " f"
+                            + " ON v." + COLUMN_ROW_ID + " = f.docid"
+                            + " WHERE " + TABLE_VOLUMES_FTS + " MATCH ?"
+                            + " ORDER BY v." + COLUMN_UPDATED_AT + " DESC LIMIT " + limit,
+                    new String[]{match});
+            while (cursor.moveToNext()) {
+                volumes.add(Volume.fromAuthorsText(cursor.getString(0), cursor.getString(1),
+                        cursor.getString(2), cursor.getString(3), cursor.getString(4)));
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Problem searching volumes.", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return volumes;
+    }
+
+    /**
+     * @return the number of volumes stored
+     */
+    public long getCount() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_VOLUMES);
+    }
+
+    /**
+     * @return an FTS query matching every word of the given search term as a prefix, or "" if
+     * it has no words
+     */
+    static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String word : QueryResultCache.normalizeQuery(query).split(" ")) {
+            // Drop FTS operators and quotes, keeping letters and digits only
+            String token = word.replaceAll("[^\\p{L}\\p{N}]", "");
+            if (!token.isEmpty()) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(token).append('*');
+            }
+        }
+        return match.toString();
+    }
+
+    private static void bind(SQLiteStatement statement, Volume volume, long now) {
+        statement.bindString(1, volume.getTitle());
+        statement.bindString(2, volume.getAuthorsText());
+        statement.bindString(3, volume.getCoverImageUrl() == null ? "" : volume.getCoverImageUrl());
+        statement.bindString(4, volume.getSmallCoverImageUrl() == null ? "" : volume.getSmallCoverImageUrl());
+        statement.bindLong(5, now);
+        statement.bindString(6, volume.getId());
+    }
+
+    /**
+     * Delete the volumes fetched longest ago until the store holds at most its maximum.
+     */
+    private void trim(SQLiteDatabase db) {
+        db.execSQL("DELETE FROM " + TABLE_VOLUMES + " WHERE " + COLUMN_ROW_ID + " IN (SELECT " + COLUMN_ROW_ID
+                + " FROM " + TABLE_VOLUMES + " ORDER BY " + COLUMN_UPDATED_AT + " DESC LIMIT -1 OFFSET "
+                + maxVolumes + ")");
+    }
+}
@@ -0,0 +1,128 @@
+package com.alperencan.booklisting.android.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+/**
+ * Helper methods to decode compressed images at no more than the size they are shown at.
+ */
+public final class BitmapDecoder {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = BitmapDecoder.class.getSimpleName();
+
+    /**
+     * Create a private constructor because no one should ever create a {@link BitmapDecoder} object.
+     */
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode the given compressed image, subsampled so that it is no smaller than, but as close
+     * as possible to, the requested size. The image's bounds are read first without allocating
+     * any pixels, and a bitmap from the pool is reused for the pixels when one fits.
+     *
+     * @param data is the compressed image
+     * @param reqWidth is the width the image is shown at, in pixels
+     * @param reqHeight is the height the image is shown at, in pixels
+     * @param config is the preferred pixel format, such as RGB_565 for opaque covers
+     * @param bitmapPool provides bitmaps to reuse, may be null
+     * @return the decoded bitmap, or null if the data could not be decoded
+     */
+    public static Bitmap decode(byte[] data, int reqWidth, int reqHeight, Bitmap.Config config,
+                                BitmapPool bitmapPool) {
+        // First decode with inJustDecodeBounds=true to check dimensions
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inPreferredConfig = config;
+        // Decoded bitmaps are mutable so that they can be reused once they are evicted
+        options.inMutable = true;
+
+        if (bitmapPool != null) {
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = bitmapPool.get(width, height, config);
+        }
+
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused for this image, decode into a new one
+            Log.d(LOG_TAG, "Could not reuse bitmap", e);
+            if (bitmapPool != null) {
+                bitmapPool.put(options.inBitmap);
+            }
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Scale the given bitmap down so that it just covers the requested size, keeping its
+     * aspect ratio. Subsampled decoding can leave images up to twice as large as needed in each
+     * dimension; scaled, they take less memory and less space once compressed again.
+     *
+     * @param bitmap is the bitmap to scale, handed to the pool if a scaled copy is returned
+     * @param reqWidth is the width the image is shown at, in pixels
+     * @param reqHeight is the height the image is shown at, in pixels
+     * @param bitmapPool provides bitmaps to reuse, may be null
+     * @return the scaled bitmap, or the given one if it is no larger than needed
+     */
+    public static Bitmap scaleToFill(Bitmap bitmap, int reqWidth, int reqHeight, BitmapPool bitmapPool) {
+        float scale = Math.max((float) reqWidth / bitmap.getWidth(), (float) reqHeight / bitmap.getHeight());
+        if (reqWidth <= 0 || reqHeight <= 0 || scale >= 1) {
+            return bitmap;
+        }
+
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+        Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap scaled = bitmapPool != null ? bitmapPool.get(width, height, config) : null;
+        if (scaled != null) {
+            scaled.reconfigure(width, height, config);
+            scaled.eraseColor(Color.TRANSPARENT);
+        } else {
+            scaled = Bitmap.createBitmap(width, height, config);
+        }
+
+        new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, width, height),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        if (bitmapPool != null) {
+            bitmapPool.put(bitmap);
+        }
+        return scaled;
+    }
+
+    /**
+     * @return the largest power of two sample size that keeps both dimensions of the image
+     * at or above the requested ones
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (reqWidth > 0 && reqHeight > 0 && (height > reqHeight || width > reqWidth)) {
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+}
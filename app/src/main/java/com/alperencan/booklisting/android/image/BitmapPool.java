@@ -0,0 +1,94 @@
+package com.alperencan.booklisting.android.image;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedList;
+
+/**
+ * {@link BitmapPool} keeps bitmaps that are no longer shown or cached so that their memory can
+ * be reused through {@link android.graphics.BitmapFactory.Options#inBitmap} instead of being
+ * allocated again. The pool is bounded by the total allocation size of its bitmaps and drops
+ * the oldest ones first.
+ */
+public class BitmapPool {
+
+    /** Maximum total allocation size of the pooled bitmaps in bytes */
+    private final int maxSize;
+
+    /** Pooled bitmaps, oldest first. Guarded by this. */
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<>();
+
+    /** Current total allocation size of the pooled bitmaps in bytes. Guarded by this. */
+    private int size;
+
+    /**
+     * Constructs a new {@link BitmapPool}.
+     *
+     * @param maxSize is the maximum total allocation size of the pooled bitmaps in bytes
+     */
+    public BitmapPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Offer a bitmap nobody references anymore for reuse.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getAllocationByteCount() > maxSize) {
+            return;
+        }
+
+        bitmaps.addLast(bitmap);
+        size += bitmap.getAllocationByteCount();
+        while (size > maxSize) {
+            size -= bitmaps.removeFirst().getAllocationByteCount();
+        }
+    }
+
+    /**
+     * @return the smallest pooled bitmap able to hold an image of the given size and config,
+     * removed from the pool, or null if there is none
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int byteCount = width * height * bytesPerPixel(config);
+
+        Bitmap best = null;
+        for (Bitmap bitmap : bitmaps) {
+            int allocation = bitmap.getAllocationByteCount();
+            if (allocation >= byteCount && (best == null || allocation < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+
+        if (best != null) {
+            bitmaps.remove(best);
+            size -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    /**
+     * Drop every pooled bitmap.
+     */
+    public synchronized void clear() {
+        bitmaps.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the current total allocation size of the pooled bitmaps in bytes
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,420 @@
+package com.alperencan.booklisting.android.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.alperencan.booklisting.android.utils.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ImageCache} is a process-wide, two-tier cache of cover images keyed by their URL.
+ * Decoded {@link Bitmap}s are kept in an in-memory LRU bounded by their size in bytes,
+ * and the compressed bytes they were decoded from are kept in an on-disk LRU in the
+ * application's cache directory.
+ *
+ * The files already on disk are indexed on the first disk access, rather than when the cache
+ * is created, which may be on the main thread during startup. Call {@link #indexDiskCache()}
+ * on a background thread to index them ahead of time.
+ */
+public class ImageCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ImageCache.class.getSimpleName();
+
+    /**
+     * Name of the directory, under the application's cache directory, holding the disk cache
+     */
+    private static final String DISK_CACHE_DIR = "covers";
+
+    /**
+     * Default size of the disk cache in bytes
+     */
+    private static final long DEFAULT_DISK_CACHE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Default share of the application's maximum heap used by the memory cache
+     */
+    private static final int DEFAULT_MEMORY_CACHE_DIVISOR = 8;
+
+    private static ImageCache instance;
+
+    /** Decoded bitmaps, sized by their byte count */
+    private final LruCache<String, Bitmap> memoryCache;
+
+    /**
+     * URLs of the bitmaps in memory, kept in step with {@link #memoryCache} so that membership
+     * can be checked without counting a hit or a miss or promoting the bitmap
+     */
+    private final Set<String> memoryKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Directory holding the compressed images */
+    private final File diskCacheDir;
+
+    /** Maximum size of the disk cache in bytes */
+    private final long maxDiskCacheSize;
+
+    /** Files in the disk cache in access order, mapped to their length. Guarded by this. */
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(32, 0.75f, true);
+
+    /** Current size of the disk cache in bytes. Guarded by this. */
+    private long diskCacheSize;
+
+    /** True once the files already on disk are indexed. Guarded by this. */
+    private boolean diskIndexed;
+
+    /** Notified of bitmaps leaving the memory cache */
+    private volatile OnBitmapRemovedListener onBitmapRemovedListener;
+
+    private int diskHitCount;
+    private int diskMissCount;
+    private int diskEvictionCount;
+
+    /**
+     * Constructs a new {@link ImageCache}.
+     *
+     * @param diskCacheDir is the directory holding the compressed images
+     * @param maxMemoryCacheSize is the maximum size of the decoded bitmaps in bytes
+     * @param maxDiskCacheSize is the maximum size of the compressed images in bytes
+     */
+    public ImageCache(File diskCacheDir, int maxMemoryCacheSize, long maxDiskCacheSize) {
+        this.diskCacheDir = diskCacheDir;
+        this.maxDiskCacheSize = maxDiskCacheSize;
+        this.memoryCache = new LruCache<String, Bitmap>(maxMemoryCacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (newValue == null) {
+                    memoryKeys.remove(key);
+                }
+                OnBitmapRemovedListener listener = onBitmapRemovedListener;
+                if (listener != null && oldValue != newValue) {
+                    listener.onBitmapRemoved(key, oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the shared {@link ImageCache}, creating it with the default sizes if needed
+     */
+    public static synchronized ImageCache getInstance(Context context) {
+        if (instance == null) {
+            int maxMemoryCacheSize = (int) (Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CACHE_DIVISOR);
+            File diskCacheDir = new File(context.getApplicationContext().getCacheDir(), DISK_CACHE_DIR);
+            instance = new ImageCache(diskCacheDir, maxMemoryCacheSize, DEFAULT_DISK_CACHE_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the decoded bitmap for the given URL, or null if it is not in memory
+     */
+    public Bitmap getBitmap(String url) {
+        Bitmap bitmap = memoryCache.get(url);
+        Metrics.increment(bitmap != null ? Metrics.IMAGE_MEMORY_CACHE_HIT : Metrics.IMAGE_MEMORY_CACHE_MISS);
+        return bitmap;
+    }
+
+    /**
+     * @return true if the decoded bitmap for the given URL is in memory. Unlike
+     * {@link #getBitmap(String)}, the lookup is not counted as a hit or a miss and leaves the
+     * bitmap's place in the LRU order as it is. A bitmap put while an earlier one for the same
+     * URL is being evicted may be reported missing.
+     */
+    public boolean containsBitmap(String url) {
+        return url != null && memoryKeys.contains(url);
+    }
+
+    /**
+     * Keep the decoded bitmap for the given URL in memory.
+     */
+    public void putBitmap(String url, Bitmap bitmap) {
+        if (url != null && bitmap != null) {
+            // Added first, since a bitmap too large to keep is evicted again within put
+            memoryKeys.add(url);
+            memoryCache.put(url, bitmap);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the bitmaps in memory
+     */
+    public int getMemorySize() {
+        return memoryCache.size();
+    }
+
+    /**
+     * Drop the least recently used bitmaps from memory until they take at most the given share
+     * of the memory cache's maximum size.
+     *
+     * @return the number of bytes of bitmaps dropped
+     */
+    public int trimMemory(float keepFraction) {
+        int before = memoryCache.size();
+        if (keepFraction <= 0) {
+            memoryCache.evictAll();
+        } else {
+            memoryCache.trimToSize((int) (memoryCache.maxSize() * keepFraction));
+        }
+        return before - memoryCache.size();
+    }
+
+    /**
+     * Set the listener notified when a bitmap is evicted from, or replaced in, the memory cache.
+     * It is invoked on the thread that caused the removal.
+     */
+    public void setOnBitmapRemovedListener(OnBitmapRemovedListener listener) {
+        onBitmapRemovedListener = listener;
+    }
+
+    /**
+     * @return true if the compressed image for the given URL is on disk. Unlike
+     * {@link #getBytes(String)}, nothing is read and the lookup is not counted as a hit or a miss.
+     */
+    public synchronized boolean containsBytes(String url) {
+        indexDiskCache();
+        return diskEntries.containsKey(keyFor(url));
+    }
+
+    /**
+     * @return the compressed image for the given URL, or null if it is not on disk
+     */
+    public synchronized byte[] getBytes(String url) {
+        indexDiskCache();
+        String key = keyFor(url);
+        Long length = diskEntries.get(key);
+        if (length == null) {
+            diskMissCount++;
+            Metrics.increment(Metrics.IMAGE_DISK_CACHE_MISS);
+            return null;
+        }
+
+        File file = new File(diskCacheDir, key);
+        byte[] data = new byte[length.intValue()];
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            int offset = 0;
+            while (offset < data.length) {
+                int read = inputStream.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                offset += read;
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem reading " + file, e);
+            removeDiskEntry(key);
+            diskMissCount++;
+            Metrics.increment(Metrics.IMAGE_DISK_CACHE_MISS);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        diskHitCount++;
+        Metrics.increment(Metrics.IMAGE_DISK_CACHE_HIT);
+        return data;
+    }
+
+    /**
+     * Keep the compressed image for the given URL on disk, evicting the least recently
+     * used images if the disk cache grows beyond its maximum size.
+     */
+    public synchronized void putBytes(String url, byte[] data) {
+        if (url == null || data == null || data.length > maxDiskCacheSize) {
+            return;
+        }
+        indexDiskCache();
+        if (!diskCacheDir.isDirectory() && !diskCacheDir.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + diskCacheDir);
+            return;
+        }
+
+        String key = keyFor(url);
+        File file = new File(diskCacheDir, key);
+        File tmpFile = new File(diskCacheDir, key + ".tmp");
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tmpFile);
+            outputStream.write(data);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem writing " + tmpFile, e);
+            tmpFile.delete();
+            return;
+        } finally {
+            closeQuietly(outputStream);
+        }
+
+        removeDiskEntry(key);
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            return;
+        }
+        diskEntries.put(key, (long) data.length);
+        diskCacheSize += data.length;
+        trimDiskCache();
+    }
+
+    /**
+     * @return a snapshot of the hit, miss and eviction counters of both tiers
+     */
+    public synchronized Stats getStats() {
+        return new Stats(memoryCache.hitCount(), memoryCache.missCount(), memoryCache.evictionCount(),
+                memoryCache.size(), memoryCache.maxSize(),
+                diskHitCount, diskMissCount, diskEvictionCount, diskCacheSize, maxDiskCacheSize);
+    }
+
+    /**
+     * Index the files already in the disk cache, oldest first, unless they are indexed already.
+     * Disk accesses wait for it, so it must not be called on the main thread.
+     */
+    public synchronized void indexDiskCache() {
+        if (diskIndexed) {
+            return;
+        }
+        diskIndexed = true;
+
+        File[] files = diskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            } else {
+                diskEntries.put(file.getName(), file.length());
+                diskCacheSize += file.length();
+            }
+        }
+        trimDiskCache();
+    }
+
+    private void trimDiskCache() {
+        Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+        while (diskCacheSize > maxDiskCacheSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(diskCacheDir, eldest.getKey()).delete();
+            diskCacheSize -= eldest.getValue();
+            diskEvictionCount++;
+            iterator.remove();
+        }
+    }
+
+    private void removeDiskEntry(String key) {
+        Long length = diskEntries.remove(key);
+        if (length != null) {
+            diskCacheSize -= length;
+        }
+        new File(diskCacheDir, key).delete();
+    }
+
+    /**
+     * @return a file name safe key for the given URL
+     */
+    private static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes(Charset.forName("UTF-8")));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(url.hashCode());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing " + closeable, e);
+            }
+        }
+    }
+
+    /**
+     * Interface definition for a callback invoked when a bitmap leaves the memory cache.
+     * It may be invoked on any thread.
+     */
+    public interface OnBitmapRemovedListener {
+        void onBitmapRemoved(String url, Bitmap bitmap);
+    }
+
+    /**
+     * A snapshot of the counters of an {@link ImageCache}, used to tune its sizes.
+     */
+    public static class Stats {
+
+        public final int memoryHits;
+        public final int memoryMisses;
+        public final int memoryEvictions;
+        public final int memorySize;
+        public final int memoryMaxSize;
+        public final int diskHits;
+        public final int diskMisses;
+        public final int diskEvictions;
+        public final long diskSize;
+        public final long diskMaxSize;
+
+        Stats(int memoryHits, int memoryMisses, int memoryEvictions, int memorySize, int memoryMaxSize,
+              int diskHits, int diskMisses, int diskEvictions, long diskSize, long diskMaxSize) {
+            this.memoryHits = memoryHits;
+            this.memoryMisses = memoryMisses;
+            this.memoryEvictions = memoryEvictions;
+            this.memorySize = memorySize;
+            this.memoryMaxSize = memoryMaxSize;
+            this.diskHits = diskHits;
+            this.diskMisses = diskMisses;
+            this.diskEvictions = diskEvictions;
+            this.diskSize = diskSize;
+            this.diskMaxSize = diskMaxSize;
+        }
+
+        @Override
+        public String toString() {
+            return "memory[hits=" + memoryHits + ", misses=" + memoryMisses + ", evictions=" + memoryEvictions
+                    + ", size=" + memorySize + "/" + memoryMaxSize + "] disk[hits=" + diskHits
+                    + ", misses=" + diskMisses + ", evictions=" + diskEvictions
+                    + ", size=" + diskSize + "/" + diskMaxSize + "]";
+        }
+    }
+}
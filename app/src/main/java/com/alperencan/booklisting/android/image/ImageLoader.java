@@ -0,0 +1,615 @@
+package com.alperencan.booklisting.android.image;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.TypedValue;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.alperencan.booklisting.android.utils.HttpClient;
+import com.alperencan.booklisting.android.utils.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ImageLoader} loads cover images into {@link ImageView}s on a bounded pool of worker
+ * threads. There is at most one request in flight per URL and its result is shared by every
+ * view waiting for it. Once no view wants the result anymore, the request is cancelled: its
+ * HTTP connection is disconnected and the image is not decoded. Downloads go through the shared
+ * {@link HttpClient}, so covers from the same host reuse its keep-alive connections.
+ *
+ * Images are decoded at the size of the view showing them. Bitmaps leaving the memory cache
+ * go to a {@link BitmapPool} once no view shows them, and are reused for later decodes.
+ * Downloaded images are stored on disk scaled to that size and transcoded to WebP, which is
+ * smaller than the JPEG covers served by Google Books, so later loads read and decode less and
+ * the disk cache holds more covers.
+ *
+ * Images about to be shown can be loaded ahead with {@link #prefetch(List, int, int)}, so that
+ * they are in memory by the time their views ask for them, and images likely to be shown later
+ * can be stored on disk ahead with {@link #preload(String, int, int)}.
+ *
+ * {@link #load(String, ImageView)}, {@link #cancel(ImageView)} and {@link #prefetch(List, int, int)}
+ * must be called on the main thread.
+ */
+public class ImageLoader {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /**
+     * Number of worker threads downloading and decoding images
+     */
+    private static final int POOL_SIZE = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+
+    /**
+     * Share of the application's maximum heap kept in the {@link BitmapPool}
+     */
+    private static final int BITMAP_POOL_DIVISOR = 32;
+
+    /**
+     * Quality of the WebP images stored in the disk cache, from 0 to 100
+     */
+    private static final int WEBP_QUALITY = 75;
+
+    /**
+     * Size images are decoded at when the view showing them has no size yet
+     */
+    private static final int DEFAULT_TARGET_SIZE_DP = 64;
+
+    private static ImageLoader instance;
+
+    private final ImageCache imageCache;
+    private final BitmapPool bitmapPool;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Requests in flight, keyed by URL. Accessed on the main thread only. */
+    private final Map<String, Request> requests = new HashMap<>();
+
+    /** Requests started by {@link #prefetch(List, int, int)}, keyed by URL. Accessed on the main thread only. */
+    private final Map<String, Request> prefetches = new HashMap<>();
+
+    /** Request each view is waiting for. Accessed on the main thread only. */
+    private final Map<ImageView, Request> targets = new WeakHashMap<>();
+
+    /**
+     * Bitmap each view shows. Views that are garbage collected, such as those of a destroyed
+     * activity, drop out by themselves. Accessed on the main thread only.
+     */
+    private final Map<ImageView, Bitmap> shownBitmaps = new WeakHashMap<>();
+
+    /**
+     * Bitmaps out of the memory cache but shown when they left it, reused once no live view
+     * shows them. Accessed on the main thread only.
+     */
+    private final Set<Bitmap> removedBitmaps = new HashSet<>();
+
+    /** URL each view was last asked to show. Accessed on the main thread only. */
+    private final Map<ImageView, String> urls = new WeakHashMap<>();
+
+    /** URL of each view whose image was released by {@link #trimMemory}. Accessed on the main thread only. */
+    private final Map<ImageView, String> releasedUrls = new WeakHashMap<>();
+
+    /**
+     * Shows the image again in a view whose image was released while it was detached, such as
+     * a row kept in the {@link android.support.v7.widget.RecyclerView}'s cache and attached
+     * again without being bound
+     */
+    private final View.OnAttachStateChangeListener reloadOnAttach = new View.OnAttachStateChangeListener() {
+        @Override
+        public void onViewAttachedToWindow(View view) {
+            view.removeOnAttachStateChangeListener(this);
+            String url = releasedUrls.remove(view);
+            if (url != null) {
+                load(url, (ImageView) view);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(View view) {
+        }
+    };
+
+    /** Pixel format images are decoded to */
+    private volatile Bitmap.Config preferredConfig = Bitmap.Config.RGB_565;
+
+    /**
+     * Constructs a new {@link ImageLoader}.
+     *
+     * @param imageCache is the cache images are read from and written to
+     * @param bitmapPool keeps bitmaps removed from the cache for reuse
+     * @param poolSize is the number of worker threads downloading and decoding images
+     */
+    public ImageLoader(ImageCache imageCache, BitmapPool bitmapPool, int poolSize) {
+        this.imageCache = imageCache;
+        this.bitmapPool = bitmapPool;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ImageLoader #" + count.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        // Index the covers on disk off the main thread, before the first request needs them
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ImageLoader.this.imageCache.indexDiskCache();
+            }
+        });
+
+        imageCache.setOnBitmapRemovedListener(new ImageCache.OnBitmapRemovedListener() {
+            @Override
+            public void onBitmapRemoved(String url, final Bitmap bitmap) {
+                if (Looper.myLooper() == Looper.getMainLooper()) {
+                    recycle(bitmap);
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        recycle(bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the shared {@link ImageLoader}, backed by the shared {@link ImageCache}
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (instance == null) {
+            BitmapPool bitmapPool = new BitmapPool((int) (Runtime.getRuntime().maxMemory() / BITMAP_POOL_DIVISOR));
+            instance = new ImageLoader(ImageCache.getInstance(context), bitmapPool, POOL_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Set the pixel format images are decoded to. RGB_565 halves the memory of opaque covers
+     * compared to ARGB_8888, at the cost of color depth.
+     */
+    public void setPreferredConfig(Bitmap.Config config) {
+        preferredConfig = config;
+    }
+
+    /**
+     * Show the image at the given URL in the given view, replacing any image the view was
+     * previously waiting for.
+     */
+    public void load(String url, ImageView imageView) {
+        cancel(imageView);
+        if (releasedUrls.remove(imageView) != null) {
+            imageView.removeOnAttachStateChangeListener(reloadOnAttach);
+        }
+        urls.put(imageView, url);
+
+        if (TextUtils.isEmpty(url)) {
+            show(imageView, null);
+            return;
+        }
+
+        Bitmap bitmap = imageCache.getBitmap(url);
+        if (bitmap != null) {
+            show(imageView, bitmap);
+            return;
+        }
+
+        // Don't show any image before the correct one is loaded
+        show(imageView, null);
+
+        Request request = requests.get(url);
+        if (request == null) {
+            request = new Request(url, targetWidth(imageView), targetHeight(imageView), preferredConfig);
+            requests.put(url, request);
+            request.future = executor.submit(request);
+        }
+        request.imageViews.add(imageView);
+        targets.put(imageView, request);
+    }
+
+    /**
+     * Stop waiting for an image in the given view. The request it was waiting for is
+     * cancelled if no other view is waiting for it.
+     */
+    public void cancel(ImageView imageView) {
+        Request request = targets.remove(imageView);
+        if (request == null) {
+            return;
+        }
+
+        request.imageViews.remove(imageView);
+        if (request.imageViews.isEmpty()) {
+            requests.remove(request.url);
+            if (prefetches.get(request.url) == request) {
+                prefetches.remove(request.url);
+            }
+            request.cancel();
+        }
+    }
+
+    /**
+     * Load the images at the given URLs into the memory cache, decoded at the given size,
+     * ahead of the views showing them. Prefetches started by a previous call for URLs no
+     * longer in the list are cancelled, unless a view has started waiting for them. An empty
+     * list cancels every prefetch.
+     *
+     * @param urls are the URLs of the images about to be shown, the most urgent first
+     * @param width is the width of the views the images will be shown in, in pixels
+     * @param height is the height of the views the images will be shown in, in pixels
+     */
+    public void prefetch(List<String> urls, int width, int height) {
+        Set<String> wanted = new HashSet<>(urls);
+        Iterator<Request> iterator = prefetches.values().iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (!wanted.contains(request.url)) {
+                iterator.remove();
+                if (request.imageViews.isEmpty()) {
+                    requests.remove(request.url);
+                    request.cancel();
+                }
+            }
+        }
+
+        for (String url : urls) {
+            if (TextUtils.isEmpty(url) || requests.containsKey(url) || imageCache.containsBitmap(url)) {
+                continue;
+            }
+            Request request = new Request(url, width, height, preferredConfig);
+            requests.put(url, request);
+            prefetches.put(url, request);
+            request.future = executor.submit(request);
+            Metrics.increment(Metrics.IMAGE_PREFETCH);
+        }
+    }
+
+    /**
+     * Store the image at the given URL on disk, scaled to the given size and transcoded the way
+     * images loaded into views are, unless it is there already. Nothing is kept in memory, so
+     * images can be stored ahead of time in bulk, for instance by a background job. Blocks until
+     * the image is stored; must not be called on the main thread.
+     *
+     * @param width is the width of the views the image will be shown in
+     * @param height is the height of the views the image will be shown in
+     * @return true if the image is on disk
+     */
+    public boolean preload(String url, int width, int height) {
+        if (TextUtils.isEmpty(url)) {
+            return false;
+        }
+        if (imageCache.containsBytes(url)) {
+            return true;
+        }
+
+        Bitmap bitmap = new Request(url, width, height, preferredConfig).loadBitmap();
+        if (bitmap == null) {
+            return false;
+        }
+        bitmapPool.put(bitmap);
+        return true;
+    }
+
+    /**
+     * Release memory held for images: the images of views detached from their window, such
+     * as rows far off screen, the least recently used bitmaps of the memory cache and,
+     * optionally, every pooled bitmap. Released views show their image again when they are
+     * attached again.
+     *
+     * @param keepFraction is the share of the memory cache's maximum size kept
+     * @param releaseDetachedViews is true to release the images of detached views
+     * @param clearPool is true to drop the pooled bitmaps
+     * @return the number of bytes of bitmaps no longer held by the memory cache, the pool or
+     * the views
+     */
+    public long trimMemory(float keepFraction, boolean releaseDetachedViews, boolean clearPool) {
+        long before = heldBytes();
+        if (releaseDetachedViews) {
+            for (ImageView imageView : new ArrayList<>(shownBitmaps.keySet())) {
+                String url = urls.get(imageView);
+                if (imageView.isAttachedToWindow() || url == null) {
+                    continue;
+                }
+                show(imageView, null);
+                releasedUrls.put(imageView, url);
+                imageView.addOnAttachStateChangeListener(reloadOnAttach);
+            }
+        }
+
+        // Bitmaps leaving the cache go to the pool right away, as this runs on the main thread
+        releaseRemovedBitmaps();
+        imageCache.trimMemory(keepFraction);
+        if (clearPool) {
+            bitmapPool.clear();
+        }
+        return before - heldBytes();
+    }
+
+    /**
+     * @return the number of bytes of the bitmaps in the memory cache, in the pool, and shown
+     * though out of the memory cache
+     */
+    private long heldBytes() {
+        long size = imageCache.getMemorySize() + bitmapPool.size();
+        for (Bitmap bitmap : removedBitmaps) {
+            size += bitmap.getAllocationByteCount();
+        }
+        return size;
+    }
+
+    /**
+     * Hand the loaded image to every view still waiting for it.
+     */
+    private void deliver(Request request, Bitmap bitmap) {
+        if (requests.get(request.url) == request) {
+            requests.remove(request.url);
+        }
+        if (prefetches.get(request.url) == request) {
+            prefetches.remove(request.url);
+        }
+
+        for (ImageView imageView : request.imageViews) {
+            targets.remove(imageView);
+            show(imageView, bitmap);
+        }
+        request.imageViews.clear();
+    }
+
+    /**
+     * Show the given bitmap in the given view, keeping track of which bitmaps are on screen.
+     */
+    private void show(ImageView imageView, Bitmap bitmap) {
+        Bitmap previous = bitmap == null ? shownBitmaps.remove(imageView) : shownBitmaps.put(imageView, bitmap);
+        imageView.setImageBitmap(bitmap);
+
+        if (previous != null && previous != bitmap && removedBitmaps.contains(previous) && !isShown(previous)) {
+            removedBitmaps.remove(previous);
+            bitmapPool.put(previous);
+        }
+    }
+
+    /**
+     * Reuse a bitmap that left the memory cache as soon as no view shows it.
+     */
+    private void recycle(Bitmap bitmap) {
+        // Views gone since the last removal no longer hold on to their bitmaps
+        releaseRemovedBitmaps();
+        if (isShown(bitmap)) {
+            removedBitmaps.add(bitmap);
+        } else {
+            bitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Reuse the bitmaps out of the memory cache that no live view shows anymore.
+     */
+    private void releaseRemovedBitmaps() {
+        Iterator<Bitmap> iterator = removedBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (!isShown(bitmap)) {
+                iterator.remove();
+                bitmapPool.put(bitmap);
+            }
+        }
+    }
+
+    /**
+     * @return true if a live view shows the given bitmap
+     */
+    private boolean isShown(Bitmap bitmap) {
+        return shownBitmaps.containsValue(bitmap);
+    }
+
+    /**
+     * @return the width the given view shows images at, in pixels
+     */
+    private static int targetWidth(ImageView imageView) {
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (params != null && params.width > 0) {
+            return params.width;
+        }
+        return imageView.getWidth() > 0 ? imageView.getWidth() : defaultTargetSize(imageView);
+    }
+
+    /**
+     * @return the height the given view shows images at, in pixels
+     */
+    private static int targetHeight(ImageView imageView) {
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (params != null && params.height > 0) {
+            return params.height;
+        }
+        return imageView.getHeight() > 0 ? imageView.getHeight() : defaultTargetSize(imageView);
+    }
+
+    private static int defaultTargetSize(ImageView imageView) {
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_TARGET_SIZE_DP,
+                imageView.getResources().getDisplayMetrics());
+    }
+
+    /**
+     * A single image download and decode, shared by every view showing the same URL.
+     */
+    private class Request implements Runnable {
+
+        final String url;
+        final int reqWidth;
+        final int reqHeight;
+        final Bitmap.Config config;
+
+        /** Views waiting for the image. Accessed on the main thread only. */
+        final Set<ImageView> imageViews = new LinkedHashSet<>();
+
+        Future<?> future;
+
+        private volatile boolean cancelled;
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        Request(String url, int reqWidth, int reqHeight, Bitmap.Config config) {
+            this.url = url;
+            this.reqWidth = reqWidth;
+            this.reqHeight = reqHeight;
+            this.config = config;
+        }
+
+        /**
+         * Abort the request. A download in progress is stopped by disconnecting its connection.
+         */
+        void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(true);
+            }
+            cancellationSignal.cancel();
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            Bitmap bitmap = loadBitmap();
+            // Nobody wants the image anymore, unless it was decoded already
+            if (bitmap != null || !cancelled) {
+                post(bitmap);
+            }
+        }
+
+        /**
+         * Read the image from disk, or download it and store it on disk, then decode it.
+         *
+         * @return the decoded image, or null if it could not be loaded or the request was cancelled
+         */
+        Bitmap loadBitmap() {
+            // Prefer the compressed copy on disk over the network
+            byte[] data = imageCache.getBytes(url);
+            boolean downloaded = false;
+            if (data == null) {
+                long downloadStart = Metrics.begin(Metrics.IMAGE_DOWNLOAD);
+                data = download();
+                Metrics.end(Metrics.IMAGE_DOWNLOAD, downloadStart);
+                if (data == null) {
+                    return null;
+                }
+                downloaded = true;
+            }
+
+            // Nobody wants the image anymore, skip decoding it
+            if (cancelled) {
+                return null;
+            }
+
+            long decodeStart = Metrics.begin(Metrics.IMAGE_DECODE);
+            Bitmap bitmap = BitmapDecoder.decode(data, reqWidth, reqHeight, config, bitmapPool);
+            if (bitmap != null) {
+                bitmap = BitmapDecoder.scaleToFill(bitmap, reqWidth, reqHeight, bitmapPool);
+            }
+            Metrics.end(Metrics.IMAGE_DECODE, decodeStart);
+
+            // Only images that could be decoded are worth keeping
+            if (downloaded && bitmap != null) {
+                long transcodeStart = Metrics.begin(Metrics.IMAGE_TRANSCODE);
+                imageCache.putBytes(url, transcode(bitmap, data));
+                Metrics.end(Metrics.IMAGE_TRANSCODE, transcodeStart);
+            }
+            return bitmap;
+        }
+
+        /**
+         * @return the given bitmap compressed to WebP, or the downloaded image if it is smaller
+         */
+        private byte[] transcode(Bitmap bitmap, byte[] downloaded) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(downloaded.length);
+            if (!bitmap.compress(Bitmap.CompressFormat.WEBP, WEBP_QUALITY, outputStream)
+                    || outputStream.size() >= downloaded.length) {
+                return downloaded;
+            }
+            return outputStream.toByteArray();
+        }
+
+        /**
+         * Cache the bitmap and hand it to the waiting views on the main thread, so that it is
+         * tracked as shown before it can be evicted and reused.
+         */
+        private void post(final Bitmap bitmap) {
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    imageCache.putBitmap(url, bitmap);
+                    if (!cancelled) {
+                        deliver(Request.this, bitmap);
+                    }
+                }
+            });
+        }
+
+        /**
+         * @return the bytes at the URL, or null if the download failed or was cancelled
+         */
+        private byte[] download() {
+            HttpClient.Response response = null;
+            try {
+                response = HttpClient.getInstance().get(new URL(url), null, cancellationSignal);
+                if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    return null;
+                }
+
+                InputStream inputStream = response.getBody();
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while (!cancelled && (read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                return cancelled ? null : outputStream.toByteArray();
+            } catch (IOException | OperationCanceledException e) {
+                if (!cancelled) {
+                    Log.w(LOG_TAG, "Error downloading image from " + url, e);
+                }
+            } finally {
+                if (response != null) {
+                    response.close();
+                }
+            }
+            return null;
+        }
+    }
+}
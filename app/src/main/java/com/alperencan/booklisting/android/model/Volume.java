@@ -1,36 +1,102 @@
 package com.alperencan.booklisting.android.model;
 
-import android.graphics.Bitmap;
-
 /**
  * A {@link Volume} object contains information related to a single book.
+ * It is immutable and compact: it only keeps the id and the text and cover URLs shown for
+ * the book. The text is computed once when it is created, so that binding it to a row
+ * allocates nothing.
  */
 
-public class Volume {
+public final class Volume {
+
+    /** Separator between author names in {@link #getAuthorsText()} */
+    private static final String AUTHORS_SEPARATOR = ", ";
+
+    /**
+     * Width in pixels of the Google Books API small thumbnails. Thumbnails are 128 pixels wide,
+     * and both are taller than they are wide.
+     */
+    public static final int SMALL_THUMBNAIL_WIDTH = 80;
+
+    /** Google Books API id of the volume */
+    private final String id;
 
     /** Title of the book */
-    private String title;
+    private final String title;
 
-    /** Authors of the book */
-    private String[] authors;
+    /** Authors of the book, joined for display */
+    private final String authorsText;
 
     /** URL string of the cover image for the book */
-    private String coverImageUrl;
+    private final String coverImageUrl;
 
-    /** Cover image of the book */
-    private Bitmap coverImage;
+    /** URL string of the small cover image for the book, or "" if there is none */
+    private final String smallCoverImageUrl;
 
     /**
      * Constructs a new {@link Volume} object.
      *
+     * @param id is the Google Books API id of the volume
      * @param title is the title of the book
      * @param authors is the array of authors for the book
      * @param coverImageUrl is the URL string of the cover image for the book
      */
-    public Volume(String title, String[] authors, String coverImageUrl) {
+    public Volume(String id, String title, String[] authors, String coverImageUrl) {
+        this(id, title, joinAuthors(authors), coverImageUrl, "");
+    }
+
+    /**
+     * Constructs a new {@link Volume} object with both cover image variants.
+     *
+     * @param id is the Google Books API id of the volume
+     * @param title is the title of the book
+     * @param authors is the array of authors for the book
+     * @param coverImageUrl is the URL string of the cover image for the book, the API's thumbnail
+     * @param smallCoverImageUrl is the URL string of the API's small thumbnail, or ""
+     */
+    public Volume(String id, String title, String[] authors, String coverImageUrl, String smallCoverImageUrl) {
+        this(id, title, joinAuthors(authors), coverImageUrl, smallCoverImageUrl);
+    }
+
+    private Volume(String id, String title, String authorsText, String coverImageUrl, String smallCoverImageUrl) {
+        this.id = id;
         this.title = title;
-        this.authors = authors;
+        this.authorsText = authorsText;
         this.coverImageUrl = coverImageUrl;
+        this.smallCoverImageUrl = smallCoverImageUrl;
+    }
+
+    /**
+     * @return a {@link Volume} whose authors are already joined, such as one read back from storage
+     */
+    public static Volume fromAuthorsText(String id, String title, String authorsText, String coverImageUrl,
+                                         String smallCoverImageUrl) {
+        return new Volume(id, title, authorsText, coverImageUrl, smallCoverImageUrl);
+    }
+
+    /**
+     * @return the given author names separated by commas
+     */
+    private static String joinAuthors(String[] authors) {
+        if (authors.length == 1) {
+            return authors[0];
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < authors.length; i++) {
+            if (i > 0) {
+                builder.append(AUTHORS_SEPARATOR);
+            }
+            builder.append(authors[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the Google Books API id of the volume, which identifies it across searches and pages
+     */
+    public String getId() {
+        return id;
     }
 
     /**
@@ -41,10 +107,10 @@ public class Volume {
     }
 
     /**
-     * @return the array of authors for the book
+     * @return the authors of the book separated by commas, ready to be shown
      */
-    public String[] getAuthors() {
-        return authors;
+    public String getAuthorsText() {
+        return authorsText;
     }
 
     /**
@@ -55,16 +121,21 @@ public class Volume {
     }
 
     /**
-     * @return the cover image of the book
+     * @return the URL string of the small cover image for the book, or "" if there is none
      */
-    public Bitmap getCoverImage() {
-        return coverImage;
+    public String getSmallCoverImageUrl() {
+        return smallCoverImageUrl;
     }
 
     /**
-     * @param coverImage
+     * @param targetWidth is the width the cover is shown at, in pixels
+     * @return the URL string of the smallest cover image that is at least as wide as the
+     * given width, or of the largest one if none is
      */
-    public void setCoverImage(Bitmap coverImage) {
-        this.coverImage = coverImage;
+    public String getCoverImageUrl(int targetWidth) {
+        if (targetWidth <= SMALL_THUMBNAIL_WIDTH && smallCoverImageUrl != null && !smallCoverImageUrl.isEmpty()) {
+            return smallCoverImageUrl;
+        }
+        return coverImageUrl == null || coverImageUrl.isEmpty() ? smallCoverImageUrl : coverImageUrl;
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.alperencan.booklisting.android.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.Process;
+
+/**
+ * {@link SavedSearchJobService} runs the periodic refresh of the saved searches scheduled by
+ * {@link SavedSearchSync}, on a background thread. The system starts it once the device is
+ * charging and on an unmetered network, and stops it as soon as either no longer holds.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SavedSearchJobService extends JobService {
+
+    /** Stops the refresh in progress, if any */
+    private CancellationSignal cancellationSignal;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationSignal signal = new CancellationSignal();
+        cancellationSignal = signal;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                SavedSearchSync.sync(getApplicationContext(), signal);
+                // The job is periodic, a refresh cut short is picked up by the next one
+                jobFinished(params, false);
+            }
+        }, "SavedSearchSync").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (cancellationSignal != null) {
+            cancellationSignal.cancel();
+        }
+        return false;
+    }
+}
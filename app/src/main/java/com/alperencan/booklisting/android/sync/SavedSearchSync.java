@@ -0,0 +1,202 @@
+package com.alperencan.booklisting.android.sync;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.TypedValue;
+
+import com.alperencan.booklisting.android.R;
+import com.alperencan.booklisting.android.data.SavedSearches;
+import com.alperencan.booklisting.android.image.ImageLoader;
+import com.alperencan.booklisting.android.model.Volume;
+import com.alperencan.booklisting.android.utils.QueryUtils;
+
+import java.util.List;
+
+/**
+ * {@link SavedSearchSync} refreshes the saved searches in the background, so that opening one
+ * never waits on the network. All of them are fetched in one batch, a few at a time, which
+ * fills the response cache and the local volume store, and the covers of their results are
+ * then stored in the image disk cache at the size the list shows them at. The responses are
+ * kept fresh for longer than the interval between refreshes, so that a search opened in
+ * between is served from disk without revalidating it.
+ *
+ * The refresh runs periodically, only while the device is charging and on an unmetered
+ * network. From API 21 it is a {@link SavedSearchJobService} scheduled with
+ * {@link JobScheduler}, which batches it with other apps' jobs. Before that it is a
+ * {@link SavedSearchSyncService} started by an inexact alarm, which skips the refresh unless
+ * both conditions hold.
+ */
+public final class SavedSearchSync {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = SavedSearchSync.class.getSimpleName();
+
+    /** Id of the refresh job, unique within the app */
+    private static final int JOB_ID = 1;
+
+    /** Size of the covers in dp if the theme does not define the height of list rows */
+    private static final int DEFAULT_COVER_SIZE_DP = 64;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link SavedSearchSync} object.
+     */
+    private SavedSearchSync() {
+    }
+
+    /**
+     * Schedule the periodic refresh if searches are saved, or cancel it if none are. A refresh
+     * already scheduled keeps its timing.
+     */
+    public static void schedule(Context context) {
+        boolean enabled = !SavedSearches.getInstance(context).getQueries().isEmpty();
+        long intervalMillis = context.getResources().getInteger(R.integer.saved_search_sync_interval_minutes) * 60 * 1000L;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context, enabled, intervalMillis);
+        } else {
+            scheduleAlarm(context, enabled, intervalMillis);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context, boolean enabled, long intervalMillis) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (!enabled) {
+            jobScheduler.cancel(JOB_ID);
+            return;
+        }
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, SavedSearchJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(intervalMillis)
+                .setPersisted(true)
+                .build());
+    }
+
+    private static void scheduleAlarm(Context context, boolean enabled, long intervalMillis) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        Intent intent = new Intent(context, SavedSearchSyncService.class);
+        PendingIntent scheduled = PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE);
+        if (!enabled) {
+            if (scheduled != null) {
+                alarmManager.cancel(scheduled);
+                scheduled.cancel();
+            }
+            return;
+        }
+        if (scheduled != null) {
+            return;
+        }
+
+        // Not a wakeup alarm: the refresh waits for the device to be awake anyway
+        alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + intervalMillis, intervalMillis,
+                PendingIntent.getService(context, 0, intent, 0));
+    }
+
+    /**
+     * @return true if the device is charging and its active network is connected and unmetered
+     */
+    public static boolean canSync(Context context) {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null || battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected() && !connectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Refresh every saved search and store the covers of its results. Blocks until done, out of
+     * time or cancelled; must not be called on the main thread.
+     *
+     * @param cancellationSignal stops the refresh when cancelled, may be null
+     * @return true if every search was refreshed and every cover stored
+     */
+    public static boolean sync(Context context, CancellationSignal cancellationSignal) {
+        return sync(context, SavedSearches.getInstance(context), ImageLoader.getInstance(context),
+                cancellationSignal);
+    }
+
+    /**
+     * Refresh the given saved searches and store the covers of their results with the given
+     * loader, for instance one backed by a cache of its own in tests.
+     *
+     * @see #sync(Context, CancellationSignal)
+     */
+    public static boolean sync(Context context, SavedSearches savedSearches, ImageLoader imageLoader,
+                               CancellationSignal cancellationSignal) {
+        List<String> queries = savedSearches.getQueries();
+        if (queries.isEmpty()) {
+            return true;
+        }
+
+        Resources resources = context.getResources();
+        long start = SystemClock.elapsedRealtime();
+        long deadline = start + resources.getInteger(R.integer.saved_search_sync_deadline_ms);
+
+        // Requested the way the list requests its first page, so that opening a search hits the caches
+        List<Volume> volumes = QueryUtils.fetchVolumeDataBatch(QueryUtils.getGoogleBooksApiBaseUrl(),
+                queries, resources.getInteger(R.integer.page_size),
+                resources.getInteger(R.integer.saved_search_sync_parallelism), deadline - start,
+                resources.getInteger(R.integer.saved_search_response_ttl_minutes) * 60 * 1000L,
+                null, cancellationSignal);
+
+        int coverSize = coverSize(context);
+        int stored = 0;
+        for (Volume volume : volumes) {
+            if (isCanceled(cancellationSignal) || SystemClock.elapsedRealtime() > deadline) {
+                break;
+            }
+            if (imageLoader.preload(volume.getCoverImageUrl(coverSize), coverSize, coverSize)) {
+                stored++;
+            }
+        }
+
+        boolean finished = !isCanceled(cancellationSignal) && SystemClock.elapsedRealtime() <= deadline;
+        Log.i(LOG_TAG, "Refreshed " + queries.size() + " saved searches: " + volumes.size() + " volumes, "
+                + stored + " covers stored, in " + (SystemClock.elapsedRealtime() - start) + " ms"
+                + (finished ? "" : " (stopped early)"));
+        return finished;
+    }
+
+    /**
+     * @return the size of the covers shown in the list, square and as high as its rows, in pixels
+     */
+    private static int coverSize(Context context) {
+        TypedValue value = new TypedValue();
+        if (context.getTheme().resolveAttribute(R.attr.listPreferredItemHeight, value, true)) {
+            return (int) value.getDimension(context.getResources().getDisplayMetrics());
+        }
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, DEFAULT_COVER_SIZE_DP,
+                context.getResources().getDisplayMetrics());
+    }
+
+    private static boolean isCanceled(CancellationSignal cancellationSignal) {
+        return cancellationSignal != null && cancellationSignal.isCanceled();
+    }
+}
@@ -0,0 +1,27 @@
+package com.alperencan.booklisting.android.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+/**
+ * {@link SavedSearchSyncService} runs the periodic refresh of the saved searches scheduled by
+ * {@link SavedSearchSync} before API 21, where there is no {@link android.app.job.JobScheduler}.
+ * It is started by an alarm regardless of the device's state, so it skips the refresh unless
+ * the device is charging and on an unmetered network.
+ */
+public class SavedSearchSyncService extends IntentService {
+
+    /**
+     * Constructs a new {@link SavedSearchSyncService}.
+     */
+    public SavedSearchSyncService() {
+        super(SavedSearchSyncService.class.getSimpleName());
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (SavedSearchSync.canSync(this)) {
+            SavedSearchSync.sync(this, null);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.os.SystemClock;
+
+/**
+ * {@link CircuitBreaker} stops sending requests to the Google Books API while it is failing.
+ * After a number of consecutive failures the circuit opens and requests fail fast, without
+ * touching the network. Once the open duration has passed, a single trial request is let
+ * through: the circuit closes again if it succeeds and stays open for another period if not.
+ * A trial request that ends without an answer, for instance because it was cancelled, says
+ * nothing about the server, and the next request becomes the trial instead.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        /** Requests go through */
+        CLOSED,
+        /** Requests fail fast */
+        OPEN,
+        /** A single trial request is going through */
+        HALF_OPEN
+    }
+
+    /** Number of consecutive failures that opens the circuit */
+    private final int failureThreshold;
+
+    /** Time in milliseconds the circuit stays open before a trial request */
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    private int failureCount;
+    private int openCount;
+    private int rejectedCount;
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold is the number of consecutive failures that opens the circuit
+     * @param openDuration is the time in milliseconds the circuit stays open before a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * @return whether a request may be sent now. A request that is allowed must be followed
+     * by a call to {@link #recordSuccess()}, {@link #recordFailure()} or {@link #recordCancelled()}.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && SystemClock.elapsedRealtime() - openedAt >= openDuration) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        if (state != State.CLOSED) {
+            rejectedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record that the server answered a request normally.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Record that a request failed because of the network or the server.
+     */
+    public synchronized void recordFailure() {
+        failureCount++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = SystemClock.elapsedRealtime();
+            openCount++;
+        }
+    }
+
+    /**
+     * Record that a request ended without an answer from the server, for instance because it
+     * was cancelled. It counts as neither a success nor a failure: if it was the trial request,
+     * the circuit opens again and lets the next request through as the trial.
+     */
+    public synchronized void recordCancelled() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * @return the current state of the circuit
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return a summary of the circuit's counters
+     */
+    public synchronized String getStats() {
+        return "state=" + state + ", failures=" + failureCount + ", opens=" + openCount
+                + ", rejected=" + rejectedCount;
+    }
+}
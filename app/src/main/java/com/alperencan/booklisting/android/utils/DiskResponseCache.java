@@ -0,0 +1,464 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link DiskResponseCache} keeps Google Books API responses on disk, keyed by their normalized
+ * URL, together with the ETag and Last-Modified validators the server sent for them.
+ * Entries younger than their time to live are served as they are, older ones are revalidated
+ * with a conditional request, and any entry may be served stale while there is no network.
+ * Every entry keeps its own time to live, so that responses fetched ahead of time by a
+ * background refresh stay fresh until the next refresh.
+ * The cache is bounded in bytes and drops the entries stored longest ago first.
+ */
+public class DiskResponseCache {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = DiskResponseCache.class.getSimpleName();
+
+    /** First bytes of a response file, "BKRC" */
+    private static final int MAGIC = 0x424b5243;
+
+    /** Version of the file format, incremented whenever it changes */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Offset of the time to live in a response file, right after the magic and the version */
+    private static final long TIME_TO_LIVE_OFFSET = 8;
+
+    /**
+     * Suffix of the files being written, each editor writing its own
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** Directory holding one file per response */
+    private final File directory;
+
+    /** Maximum size of the cache in bytes */
+    private final long maxSize;
+
+    /** Time in milliseconds a response is served without being revalidated, unless stored with another */
+    private final long timeToLive;
+
+    /** Whether the files left behind by writes of a previous process were deleted */
+    private boolean tmpFilesDeleted;
+
+    private int hitCount;
+    private int staleHitCount;
+    private int revalidationCount;
+    private int missCount;
+
+    /**
+     * Constructs a new {@link DiskResponseCache}.
+     *
+     * @param directory is the directory holding the responses
+     * @param maxSize is the maximum size of the cache in bytes
+     * @param timeToLive is the time in milliseconds a response is served without being revalidated,
+     *                   unless it was stored with another
+     */
+    public DiskResponseCache(File directory, long maxSize, long timeToLive) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return the cache key for the given URL: its query parameters sorted by name, so that
+     * the same request built in a different order maps to the same entry
+     */
+    public static String normalizeUrl(String url) {
+        Uri uri = Uri.parse(url);
+        List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+        Collections.sort(names);
+
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : names) {
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build().toString();
+    }
+
+    /**
+     * @return the cached response for the given URL, or null if there is none
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.isFile()) {
+            missCount++;
+            Metrics.increment(Metrics.RESPONSE_CACHE_MISS);
+            return null;
+        }
+
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new FileInputStream(file));
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown format");
+            }
+            long entryTimeToLive = inputStream.readLong();
+            String etag = inputStream.readUTF();
+            String lastModified = inputStream.readUTF();
+            return new Entry(file, entryTimeToLive, etag, lastModified, file.lastModified());
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem reading " + file, e);
+            file.delete();
+            missCount++;
+            Metrics.increment(Metrics.RESPONSE_CACHE_MISS);
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * @return whether the given entry can be served without revalidating it
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.storedAt < entry.timeToLive;
+    }
+
+    /**
+     * Record that an entry is being served, either fresh or stale.
+     */
+    public synchronized void recordHit(boolean stale) {
+        if (stale) {
+            staleHitCount++;
+        } else {
+            hitCount++;
+        }
+        Metrics.increment(stale ? Metrics.RESPONSE_CACHE_STALE_HIT : Metrics.RESPONSE_CACHE_HIT);
+    }
+
+    /**
+     * Record that the server confirmed the given entry is unchanged, restarting its time to live.
+     */
+    public synchronized void markRevalidated(Entry entry) {
+        markRevalidated(entry, 0);
+    }
+
+    /**
+     * Record that the server confirmed the given entry is unchanged, restarting its time to live
+     * and making it at least the given one.
+     *
+     * @param timeToLive is the least time in milliseconds the entry is now served without being
+     *                   revalidated, or 0 to keep its own
+     */
+    public synchronized void markRevalidated(Entry entry, long timeToLive) {
+        revalidationCount++;
+        Metrics.increment(Metrics.RESPONSE_CACHE_REVALIDATED);
+        if (timeToLive > entry.timeToLive) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(entry.file, "rw");
+                file.seek(TIME_TO_LIVE_OFFSET);
+                file.writeLong(timeToLive);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem writing " + entry.file, e);
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        entry.file.setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Start storing a new response for the given URL, served for the cache's time to live.
+     *
+     * @see #edit(String, String, String, long)
+     */
+    public Editor edit(String url, String etag, String lastModified) {
+        return edit(url, etag, lastModified, 0);
+    }
+
+    /**
+     * Start storing a new response for the given URL. The response replaces any previous one
+     * when the returned editor is committed.
+     *
+     * @param etag is the ETag header of the response, may be null
+     * @param lastModified is the Last-Modified header of the response, may be null
+     * @param timeToLive is the time in milliseconds the response is served without being
+     *                   revalidated, or 0 for the cache's
+     * @return an editor to write the body through, or null if the cache cannot be written
+     */
+    public synchronized Editor edit(String url, String etag, String lastModified, long timeToLive) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(LOG_TAG, "Could not create " + directory);
+            return null;
+        }
+        if (!tmpFilesDeleted) {
+            // No editor of this cache is open yet, so any file being written is an orphan
+            deleteTmpFiles();
+            tmpFilesDeleted = true;
+        }
+
+        File file = fileFor(url);
+        File tmpFile = null;
+        try {
+            // Concurrent fetches of one URL each write their own file, the last one committed wins
+            tmpFile = File.createTempFile(file.getName() + ".", TMP_SUFFIX, directory);
+            DataOutputStream outputStream = new DataOutputStream(new FileOutputStream(tmpFile));
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeLong(timeToLive > 0 ? timeToLive : this.timeToLive);
+            outputStream.writeUTF(etag == null ? "" : etag);
+            outputStream.writeUTF(lastModified == null ? "" : lastModified);
+            return new Editor(file, tmpFile, outputStream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Problem writing " + (tmpFile != null ? tmpFile : file), e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return a summary of the cache's counters
+     */
+    public synchronized String getStats() {
+        return "hits=" + hitCount + ", staleHits=" + staleHitCount + ", revalidations=" + revalidationCount
+                + ", misses=" + missCount;
+    }
+
+    private synchronized void commit(Editor editor) {
+        editor.file.delete();
+        if (!editor.tmpFile.renameTo(editor.file)) {
+            editor.tmpFile.delete();
+            return;
+        }
+        trim();
+    }
+
+    /**
+     * Delete the entries stored longest ago until the cache fits in its maximum size.
+     */
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= maxSize) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length && size > maxSize; i++) {
+            if (!files[i].getName().endsWith(TMP_SUFFIX)) {
+                size -= files[i].length();
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Delete the files left half written when the process was killed during a download.
+     */
+    private void deleteTmpFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(normalizeUrl(url).getBytes(Charset.forName("UTF-8")));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            return new File(directory, String.valueOf(normalizeUrl(url).hashCode()));
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing " + closeable, e);
+            }
+        }
+    }
+
+    /**
+     * A cached response and the validators to revalidate it with.
+     */
+    public static class Entry {
+
+        private final File file;
+
+        /** Time in milliseconds the response is served without being revalidated */
+        public final long timeToLive;
+
+        /** ETag header of the response, or "" */
+        public final String etag;
+
+        /** Last-Modified header of the response, or "" */
+        public final String lastModified;
+
+        /** Time the response was stored or last revalidated, in milliseconds */
+        public final long storedAt;
+
+        Entry(File file, long timeToLive, String etag, String lastModified, long storedAt) {
+            this.file = file;
+            this.timeToLive = timeToLive;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        /**
+         * @return whether the response can be revalidated with a conditional request
+         */
+        public boolean hasValidators() {
+            return !TextUtils.isEmpty(etag) || !TextUtils.isEmpty(lastModified);
+        }
+
+        /**
+         * @return a stream over the body of the response
+         */
+        public InputStream openBody() throws IOException {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                // Magic, version and time to live, checked by get()
+                inputStream.readInt();
+                inputStream.readInt();
+                inputStream.readLong();
+                inputStream.readUTF();
+                inputStream.readUTF();
+            } catch (IOException e) {
+                closeQuietly(inputStream);
+                throw e;
+            }
+            return inputStream;
+        }
+    }
+
+    /**
+     * Writes the body of a new response to the cache as it is read from the network.
+     */
+    public class Editor {
+
+        private final File file;
+        private final File tmpFile;
+        private final DataOutputStream outputStream;
+        private boolean failed;
+
+        Editor(File file, File tmpFile, DataOutputStream outputStream) {
+            this.file = file;
+            this.tmpFile = tmpFile;
+            this.outputStream = outputStream;
+        }
+
+        /**
+         * @return a stream that copies everything read from the given body into the cache
+         */
+        public InputStream wrap(InputStream body) {
+            return new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int read = super.read(buffer, offset, count);
+                    if (read > 0) {
+                        write(buffer, offset, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (failed) {
+                return;
+            }
+            try {
+                outputStream.write(buffer, offset, count);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem writing " + tmpFile, e);
+                failed = true;
+            }
+        }
+
+        /**
+         * Publish the response, replacing any previous one for the same URL.
+         */
+        public void commit() {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+            if (failed) {
+                tmpFile.delete();
+            } else {
+                DiskResponseCache.this.commit(this);
+            }
+        }
+
+        /**
+         * Drop the response, keeping any previous one for the same URL.
+         */
+        public void abort() {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing " + tmpFile, e);
+            }
+            tmpFile.delete();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the process-wide thread pool Google Books API requests run on, instead of the
+ * shared AsyncTask executors. Its size can be changed at any time.
+ */
+public final class FetchExecutor {
+
+    /**
+     * Number of threads used until {@link #setPoolSize(int)} is called
+     */
+    private static final int DEFAULT_POOL_SIZE = 2;
+
+    /**
+     * Seconds an idle thread is kept alive
+     */
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link FetchExecutor} object.
+     */
+    private FetchExecutor() {
+    }
+
+    /**
+     * @return the thread pool API requests run on
+     */
+    public static synchronized ThreadPoolExecutor get() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            return new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                    runnable.run();
+                                }
+                            }, "FetchExecutor #" + count.incrementAndGet());
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Set the number of threads API requests run on.
+     */
+    public static synchronized void setPoolSize(int poolSize) {
+        ThreadPoolExecutor threadPoolExecutor = get();
+        if (poolSize > threadPoolExecutor.getMaximumPoolSize()) {
+            threadPoolExecutor.setMaximumPoolSize(poolSize);
+            threadPoolExecutor.setCorePoolSize(poolSize);
+        } else {
+            threadPoolExecutor.setCorePoolSize(poolSize);
+            threadPoolExecutor.setMaximumPoolSize(poolSize);
+        }
+    }
+}
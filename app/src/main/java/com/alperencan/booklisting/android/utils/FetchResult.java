@@ -0,0 +1,74 @@
+package com.alperencan.booklisting.android.utils;
+
+import com.alperencan.booklisting.android.model.Volume;
+
+import java.util.List;
+
+/**
+ * A page of results from the Google Books API, or the reason it could not be fetched.
+ */
+public final class FetchResult {
+
+    /**
+     * The reasons a page of results can fail to be fetched.
+     */
+    public enum Error {
+        /** There is no network and no cached copy of the page */
+        OFFLINE,
+        /** The server could not be reached, or the connection broke */
+        NETWORK,
+        /** The server answered with a 5xx status */
+        SERVER,
+        /** The server answered 429 Too Many Requests */
+        RATE_LIMITED,
+        /** The server rejected the request with a 4xx status */
+        CLIENT,
+        /** Requests are failing fast while the server is failing */
+        CIRCUIT_OPEN,
+        /** The request was cancelled */
+        CANCELLED
+    }
+
+    private final List<Volume> volumes;
+    private final Error error;
+
+    private FetchResult(List<Volume> volumes, Error error) {
+        this.volumes = volumes;
+        this.error = error;
+    }
+
+    /**
+     * @return a successful result holding the given page of volumes
+     */
+    public static FetchResult success(List<Volume> volumes) {
+        return new FetchResult(volumes, null);
+    }
+
+    /**
+     * @return a failed result
+     */
+    public static FetchResult failure(Error error) {
+        return new FetchResult(null, error);
+    }
+
+    /**
+     * @return whether the page was fetched
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return the page of volumes, or null if it could not be fetched
+     */
+    public List<Volume> getVolumes() {
+        return volumes;
+    }
+
+    /**
+     * @return why the page could not be fetched, or null if it was
+     */
+    public Error getError() {
+        return error;
+    }
+}
@@ -0,0 +1,418 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpClient} is the HTTP layer shared by API requests and image downloads.
+ *
+ * It leaves connections to the platform's keep-alive pool: a response whose body was read to
+ * the end is closed without disconnecting, so the next request to the same host reuses the
+ * connection instead of doing another TCP and TLS handshake. It asks for gzip and
+ * decompresses transparently, applies the same timeouts everywhere, bounds the number of
+ * concurrent requests per host, and reports how long each phase of every request took.
+ */
+public class HttpClient {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = HttpClient.class.getSimpleName();
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 15000; /* milliseconds */
+    private static final int DEFAULT_READ_TIMEOUT = 10000; /* milliseconds */
+    private static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+
+    /**
+     * Number of idle connections the platform keeps alive per host
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+
+    /**
+     * Most bytes read to reach the end of an abandoned body, so that its connection can be reused
+     */
+    private static final int MAX_DRAIN_BYTES = 8192;
+
+    /**
+     * Disconnects requests cancelled on the main thread, as closing a TLS socket does I/O.
+     * Not the pools requests run on, whose threads may all be blocked in the reads being aborted.
+     */
+    private static final Executor DISCONNECT_EXECUTOR;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "HttpClient disconnect");
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        DISCONNECT_EXECUTOR = executor;
+
+        // Read by the platform's connection pool when it is first used
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    private static HttpClient instance;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxRequestsPerHost;
+
+    /** Permits for concurrent requests, per host */
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    /** Notified with the timings of every finished request */
+    private volatile MetricsListener metricsListener;
+
+    /**
+     * Constructs a new {@link HttpClient}.
+     *
+     * @param connectTimeout is the connect timeout in milliseconds
+     * @param readTimeout is the read timeout in milliseconds
+     * @param maxRequestsPerHost is the maximum number of concurrent requests to a single host
+     */
+    public HttpClient(int connectTimeout, int readTimeout, int maxRequestsPerHost) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @return the shared {@link HttpClient}, created with the default timeouts and limits
+     */
+    public static synchronized HttpClient getInstance() {
+        if (instance == null) {
+            instance = new HttpClient(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_REQUESTS_PER_HOST);
+        }
+        return instance;
+    }
+
+    /**
+     * Replace the shared {@link HttpClient}, for instance to change its timeouts.
+     */
+    public static synchronized void setInstance(HttpClient httpClient) {
+        instance = httpClient;
+    }
+
+    /**
+     * Set the listener notified with the timings of every finished request, or null to remove it.
+     */
+    public void setMetricsListener(MetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /**
+     * Make a GET request. Blocks until a permit for the URL's host is available and the
+     * response headers have arrived. The returned response must be closed.
+     *
+     * @param headers are extra request headers, may be null
+     * @param cancellationSignal disconnects the request when cancelled, aborting any read in
+     *                           progress, may be null. When it is cancelled on the main thread,
+     *                           the connection is disconnected on a background thread.
+     */
+    public Response get(URL url, Map<String, String> headers, CancellationSignal cancellationSignal)
+            throws IOException {
+        if (cancellationSignal != null) {
+            cancellationSignal.throwIfCanceled();
+        }
+
+        Semaphore permits = permitsFor(url.getHost());
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for " + url.getHost());
+        }
+
+        Timing timing = new Timing(url.toString());
+        HttpURLConnection urlConnection = null;
+        try {
+            long start = SystemClock.elapsedRealtime();
+
+            urlConnection = (HttpURLConnection) url.openConnection();
+            final HttpURLConnection connection = urlConnection;
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        if (Looper.myLooper() != Looper.getMainLooper()) {
+                            connection.disconnect();
+                            return;
+                        }
+                        DISCONNECT_EXECUTOR.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                connection.disconnect();
+                            }
+                        });
+                    }
+                });
+            }
+            urlConnection.setConnectTimeout(connectTimeout);
+            urlConnection.setReadTimeout(readTimeout);
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+
+            urlConnection.connect();
+            long connected = SystemClock.elapsedRealtime();
+            timing.connectMillis = connected - start;
+
+            int responseCode = urlConnection.getResponseCode();
+            timing.ttfbMillis = SystemClock.elapsedRealtime() - connected;
+            timing.statusCode = responseCode;
+
+            return new Response(urlConnection, permits, cancellationSignal, timing);
+        } catch (IOException e) {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            permits.release();
+            timing.failed = true;
+            report(timing);
+            throw e;
+        }
+    }
+
+    private Semaphore permitsFor(String host) {
+        Semaphore permits = hostPermits.get(host);
+        if (permits == null) {
+            synchronized (hostPermits) {
+                permits = hostPermits.get(host);
+                if (permits == null) {
+                    permits = new Semaphore(maxRequestsPerHost, true);
+                    hostPermits.put(host, permits);
+                }
+            }
+        }
+        return permits;
+    }
+
+    private void report(Timing timing) {
+        Metrics.increment(Metrics.HTTP_REQUESTS);
+        if (timing.failed) {
+            Metrics.increment(Metrics.HTTP_FAILURES);
+        } else {
+            Metrics.record(Metrics.HTTP_CONNECT, timing.connectMillis * 1000000);
+            Metrics.record(Metrics.HTTP_TTFB, timing.ttfbMillis * 1000000);
+            Metrics.record(Metrics.HTTP_BODY, timing.bodyMillis * 1000000);
+        }
+
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onRequestFinished(timing);
+        }
+    }
+
+    /**
+     * Interface definition for a callback invoked, on the requesting thread, when a request
+     * has finished.
+     */
+    public interface MetricsListener {
+        void onRequestFinished(Timing timing);
+    }
+
+    /**
+     * How long each phase of a request took, in milliseconds.
+     *
+     * There is no separate DNS phase. {@link HttpURLConnection} resolves the host inside
+     * connect() and reports nothing of it, and a lookup of our own would be a second one, made
+     * even for pooled connections that need none. Name resolution is therefore part of
+     * {@link #connectMillis}, which is only large for new connections.
+     */
+    public static class Timing {
+
+        public final String url;
+        public int statusCode;
+        /**
+         * Resolving the host name and connecting, including the TLS handshake. Close to zero when
+         * a pooled connection is reused.
+         */
+        public long connectMillis;
+        /** Waiting for the response headers once connected */
+        public long ttfbMillis;
+        /** Reading the body */
+        public long bodyMillis;
+        /** Bytes of body read, before decompression */
+        public long bodyBytes;
+        /** True if the request failed before it completed */
+        public boolean failed;
+
+        Timing(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public String toString() {
+            return "status=" + statusCode + " connect=" + connectMillis + "ms ttfb="
+                    + ttfbMillis + "ms body=" + bodyMillis + "ms/" + bodyBytes + "B" + (failed ? " failed" : "")
+                    + " " + url;
+        }
+    }
+
+    /**
+     * A response whose headers have arrived. Closing it releases its host permit and returns
+     * its connection to the pool if the body was read to the end.
+     */
+    public class Response {
+
+        private final HttpURLConnection urlConnection;
+        private final Semaphore permits;
+        private final CancellationSignal cancellationSignal;
+        private final Timing timing;
+        private final long bodyStart = SystemClock.elapsedRealtime();
+
+        private CountingInputStream rawBody;
+        private InputStream body;
+        private boolean closed;
+
+        Response(HttpURLConnection urlConnection, Semaphore permits, CancellationSignal cancellationSignal,
+                 Timing timing) {
+            this.urlConnection = urlConnection;
+            this.permits = permits;
+            this.cancellationSignal = cancellationSignal;
+            this.timing = timing;
+        }
+
+        /**
+         * @return the HTTP status code
+         */
+        public int getResponseCode() {
+            return timing.statusCode;
+        }
+
+        /**
+         * @return the value of the given response header, or null
+         */
+        public String getHeaderField(String name) {
+            return urlConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the body, decompressed if the server sent it gzipped
+         */
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                rawBody = new CountingInputStream(urlConnection.getInputStream());
+                body = "gzip".equalsIgnoreCase(urlConnection.getContentEncoding())
+                        ? new GZIPInputStream(rawBody) : rawBody;
+            }
+            return body;
+        }
+
+        /**
+         * Release the response.
+         */
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+
+            boolean reusable = rawBody != null && drain(rawBody);
+            try {
+                if (body != null) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                reusable = false;
+            }
+            if (!reusable) {
+                // Only connections whose body was consumed can go back to the pool
+                urlConnection.disconnect();
+            }
+            permits.release();
+
+            timing.bodyMillis = SystemClock.elapsedRealtime() - bodyStart;
+            timing.bodyBytes = rawBody != null ? rawBody.count : 0;
+            report(timing);
+        }
+
+        /**
+         * @return whether the end of the given body was reached
+         */
+        private boolean drain(CountingInputStream inputStream) {
+            if (inputStream.reachedEnd) {
+                return true;
+            }
+            try {
+                byte[] buffer = new byte[1024];
+                long limit = inputStream.count + MAX_DRAIN_BYTES;
+                while (inputStream.count < limit) {
+                    if (inputStream.read(buffer) == -1) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                Log.d(LOG_TAG, "Problem draining the response body.", e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream and whether its end was reached.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+        boolean reachedEnd;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                reachedEnd = true;
+            } else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read == -1) {
+                reachedEnd = true;
+            } else {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.alperencan.booklisting.android.image.ImageLoader;
+
+/**
+ * {@link MemoryGovernor} releases the memory held by the in-memory caches as the system runs
+ * short of it, so that the process is less likely to be killed, and less of a burden on the
+ * foreground app while it is in the background. The higher the trim level, the more it gives
+ * up, step by step:
+ * <ul>
+ * <li>while running, a growing share of the decoded covers and cached result pages,</li>
+ * <li>then the pooled bitmaps and the covers of rows detached from the list, far off screen,</li>
+ * <li>once in the background, SQLite's page caches, and eventually every cached cover and page.</li>
+ * </ul>
+ * Covers shown on screen are kept. Everything released is loaded again on demand, from the
+ * disk caches when possible. Each step logs how many bytes it reclaimed.
+ */
+public class MemoryGovernor implements ComponentCallbacks2 {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = MemoryGovernor.class.getSimpleName();
+
+    private static MemoryGovernor instance;
+
+    private final ImageLoader imageLoader;
+    private final QueryResultCache resultCache;
+
+    /**
+     * Constructs a new {@link MemoryGovernor}.
+     *
+     * @param imageLoader holds the decoded covers
+     * @param resultCache holds the parsed result pages
+     */
+    public MemoryGovernor(ImageLoader imageLoader, QueryResultCache resultCache) {
+        this.imageLoader = imageLoader;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Start governing the shared caches, once per process.
+     */
+    public static synchronized void install(Context context) {
+        if (instance == null) {
+            instance = new MemoryGovernor(ImageLoader.getInstance(context), QueryResultCache.getInstance());
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        switch (level) {
+            case TRIM_MEMORY_RUNNING_MODERATE:
+                trim(level, 0.75f, 1, false, false, false);
+                break;
+            case TRIM_MEMORY_RUNNING_LOW:
+                trim(level, 0.5f, 0.5f, false, true, false);
+                break;
+            case TRIM_MEMORY_RUNNING_CRITICAL:
+                trim(level, 0.25f, 0.25f, true, true, false);
+                break;
+            case TRIM_MEMORY_UI_HIDDEN:
+                trim(level, 0.5f, 1, true, true, false);
+                break;
+            case TRIM_MEMORY_BACKGROUND:
+                trim(level, 0.25f, 0.5f, true, true, true);
+                break;
+            default:
+                // TRIM_MEMORY_MODERATE and TRIM_MEMORY_COMPLETE: the process is among the next to be killed
+                if (level >= TRIM_MEMORY_MODERATE) {
+                    trim(level, 0, 0, true, true, true);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_MEMORY_COMPLETE, 0, 0, true, true, true);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Release memory and log how much was reclaimed.
+     *
+     * @param imageKeepFraction is the share of the cover cache's maximum size kept
+     * @param resultKeepFraction is the share of the result cache's maximum number of pages kept
+     * @param releaseDetachedViews is true to release the covers of rows detached from the list
+     * @param clearBitmapPool is true to drop the bitmaps kept for reuse
+     * @param releaseDatabaseMemory is true to release SQLite's page caches
+     */
+    private void trim(int level, float imageKeepFraction, float resultKeepFraction, boolean releaseDetachedViews,
+                      boolean clearBitmapPool, boolean releaseDatabaseMemory) {
+        long imageBytes = imageLoader.trimMemory(imageKeepFraction, releaseDetachedViews, clearBitmapPool);
+        long resultBytes = resultKeepFraction < 1 ? resultCache.trim(resultKeepFraction) : 0;
+        long databaseBytes = releaseDatabaseMemory ? SQLiteDatabase.releaseMemory() : 0;
+
+        Log.i(LOG_TAG, "Trim level " + level + ": reclaimed " + (imageBytes + resultBytes + databaseBytes)
+                + " bytes (images " + imageBytes + ", results ~" + resultBytes + ", database " + databaseBytes + ")");
+    }
+}
@@ -0,0 +1,248 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Metrics} collects timing spans and counters along the search and image pipelines,
+ * cheaply enough to stay on in production builds. Every span keeps its count, mean, max and
+ * the percentiles of its recent durations, and the most recent spans are kept in order as a
+ * log. Spans measured within one thread also show up as sections in systrace.
+ *
+ * Recording a span or counter that already exists allocates nothing, so it can be used on
+ * paths such as binding a row. Everything can be written out with {@link #dump(PrintWriter)}.
+ */
+public final class Metrics {
+
+    public static final String STARTUP_CREATE = "startup.create";
+    public static final String STARTUP_SNAPSHOT_READ = "startup.snapshot_read";
+    public static final String STARTUP_FIRST_FRAME = "startup.first_frame";
+    public static final String SEARCH_CONNECTIVITY = "search.connectivity";
+    public static final String SEARCH_FIRST_RESULTS = "search.first_results";
+    public static final String HTTP_CONNECT = "http.connect";
+    public static final String HTTP_TTFB = "http.ttfb";
+    public static final String HTTP_BODY = "http.body";
+    public static final String HTTP_REQUESTS = "http.requests";
+    public static final String HTTP_FAILURES = "http.failures";
+    public static final String JSON_PARSE = "json.parse";
+    public static final String ADAPTER_BIND = "adapter.bind";
+    public static final String IMAGE_DOWNLOAD = "image.download";
+    public static final String IMAGE_DECODE = "image.decode";
+    public static final String IMAGE_PREFETCH = "image.prefetch";
+    public static final String IMAGE_TRANSCODE = "image.transcode";
+    public static final String RESULT_CACHE_HIT = "cache.results.hit";
+    public static final String RESULT_CACHE_MISS = "cache.results.miss";
+    public static final String RESPONSE_CACHE_HIT = "cache.responses.hit";
+    public static final String RESPONSE_CACHE_STALE_HIT = "cache.responses.stale_hit";
+    public static final String RESPONSE_CACHE_REVALIDATED = "cache.responses.revalidated";
+    public static final String RESPONSE_CACHE_MISS = "cache.responses.miss";
+    public static final String IMAGE_MEMORY_CACHE_HIT = "cache.images.memory.hit";
+    public static final String IMAGE_MEMORY_CACHE_MISS = "cache.images.memory.miss";
+    public static final String IMAGE_DISK_CACHE_HIT = "cache.images.disk.hit";
+    public static final String IMAGE_DISK_CACHE_MISS = "cache.images.disk.miss";
+
+    /**
+     * Number of recent durations kept per span for its percentiles
+     */
+    private static final int SAMPLES_PER_SPAN = 256;
+
+    /**
+     * Number of recent spans kept in the log
+     */
+    private static final int LOG_CAPACITY = 512;
+
+    private static volatile boolean enabled = true;
+
+    private static final Map<String, SpanStats> spans = new TreeMap<>();
+    private static final Map<String, AtomicLong> counters = new TreeMap<>();
+
+    /** Recent spans, in a ring: their names, wall clock end times and durations */
+    private static final String[] logNames = new String[LOG_CAPACITY];
+    private static final long[] logTimes = new long[LOG_CAPACITY];
+    private static final long[] logDurations = new long[LOG_CAPACITY];
+    private static int logNext;
+    private static int logSize;
+
+    /**
+     * Create a private constructor because no one should ever create a {@link Metrics} object.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Set whether spans and counters are recorded.
+     */
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    /**
+     * Start a span that ends on the same thread, with {@link #end(String, long)}.
+     *
+     * @return the start of the span, to pass to {@link #end(String, long)}
+     */
+    public static long begin(String name) {
+        if (!enabled) {
+            return 0;
+        }
+        Trace.beginSection(name);
+        return System.nanoTime();
+    }
+
+    /**
+     * End a span started with {@link #begin(String)} on the same thread.
+     */
+    public static void end(String name, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        Trace.endSection();
+        record(name, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record a span measured some other way, for instance across threads.
+     */
+    public static void record(String name, long durationNanos) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (spans) {
+            SpanStats stats = spans.get(name);
+            if (stats == null) {
+                stats = new SpanStats();
+                spans.put(name, stats);
+            }
+            stats.add(durationNanos);
+
+            logNames[logNext] = name;
+            logTimes[logNext] = now;
+            logDurations[logNext] = durationNanos;
+            logNext = (logNext + 1) % LOG_CAPACITY;
+            logSize = Math.min(logSize + 1, LOG_CAPACITY);
+        }
+    }
+
+    /**
+     * Add one to the given counter.
+     */
+    public static void increment(String name) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong counter;
+        synchronized (counters) {
+            counter = counters.get(name);
+            if (counter == null) {
+                counter = new AtomicLong();
+                counters.put(name, counter);
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Forget every span and counter.
+     */
+    public static void reset() {
+        synchronized (spans) {
+            spans.clear();
+            logNext = 0;
+            logSize = 0;
+            Arrays.fill(logNames, null);
+        }
+        synchronized (counters) {
+            counters.clear();
+        }
+    }
+
+    /**
+     * Write every span's statistics, every counter and the recent spans, one per line:
+     * <pre>
+     * span &lt;name&gt; count=&lt;n&gt; mean=&lt;ms&gt; p50=&lt;ms&gt; p99=&lt;ms&gt; max=&lt;ms&gt;
+     * counter &lt;name&gt; &lt;value&gt;
+     * event &lt;time&gt; &lt;name&gt; &lt;ms&gt;
+     * </pre>
+     */
+    public static void dump(PrintWriter writer) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ", Locale.US);
+        writer.println("# metrics " + format.format(new Date()));
+
+        List<String> events = new ArrayList<>();
+        synchronized (spans) {
+            for (Map.Entry<String, SpanStats> entry : spans.entrySet()) {
+                SpanStats stats = entry.getValue();
+                writer.println(String.format(Locale.US, "span %s count=%d mean=%.3f p50=%.3f p99=%.3f max=%.3f",
+                        entry.getKey(), stats.count, millis(stats.totalNanos / stats.count),
+                        millis(stats.percentile(50)), millis(stats.percentile(99)), millis(stats.maxNanos)));
+            }
+            for (int i = 0; i < logSize; i++) {
+                int index = (logNext - logSize + i + LOG_CAPACITY) % LOG_CAPACITY;
+                events.add(String.format(Locale.US, "event %s %s %.3f", format.format(new Date(logTimes[index])),
+                        logNames[index], millis(logDurations[index])));
+            }
+        }
+        synchronized (counters) {
+            for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+                writer.println("counter " + entry.getKey() + " " + entry.getValue().get());
+            }
+        }
+        for (String event : events) {
+            writer.println(event);
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return everything {@link #dump(PrintWriter)} writes
+     */
+    public static String dump() {
+        StringWriter stringWriter = new StringWriter();
+        dump(new PrintWriter(stringWriter));
+        return stringWriter.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Statistics of one span.
+     */
+    private static class SpanStats {
+
+        long count;
+        long totalNanos;
+        long maxNanos;
+
+        /** Recent durations, in a ring */
+        final long[] samples = new long[SAMPLES_PER_SPAN];
+
+        void add(long durationNanos) {
+            samples[(int) (count % SAMPLES_PER_SPAN)] = durationNanos;
+            count++;
+            totalNanos += durationNanos;
+            maxNanos = Math.max(maxNanos, durationNanos);
+        }
+
+        long percentile(int percentile) {
+            int size = (int) Math.min(count, SAMPLES_PER_SPAN);
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.util.LruCache;
+
+import com.alperencan.booklisting.android.model.Volume;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link QueryResultCache} is a process-wide, in-memory cache of parsed search results.
+ * Each page of results is keyed by the API it was fetched from, its normalized search term,
+ * start index and page size, so that searching again for "Harry  Potter" or "harry potter" is
+ * answered without any network or parsing, and pages from one server are never served for
+ * another. The cache holds a bounded number of pages and drops pages older than its
+ * time to live.
+ */
+public class QueryResultCache {
+
+    /**
+     * Default maximum number of pages kept
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 32;
+
+    /**
+     * Default time in milliseconds a page is kept
+     */
+    private static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+
+    /**
+     * Approximate size in bytes of a {@link Volume} and its strings, besides their characters
+     */
+    private static final int VOLUME_OVERHEAD_BYTES = 200;
+
+    private static QueryResultCache instance;
+
+    /** Time in milliseconds a page is kept */
+    private final long timeToLive;
+
+    private final LruCache<String, Entry> entries;
+
+    /** Notified of hits, misses and evictions */
+    private volatile StatsListener statsListener;
+
+    private int expirationCount;
+
+    /**
+     * Constructs a new {@link QueryResultCache}.
+     *
+     * @param maxEntries is the maximum number of pages kept
+     * @param timeToLive is the time in milliseconds a page is kept
+     */
+    public QueryResultCache(int maxEntries, long timeToLive) {
+        this.timeToLive = timeToLive;
+        this.entries = new LruCache<String, Entry>(maxEntries) {
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                StatsListener listener = statsListener;
+                if (evicted && listener != null) {
+                    listener.onEviction(key);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the process-wide {@link QueryResultCache}
+     */
+    public static synchronized QueryResultCache getInstance() {
+        if (instance == null) {
+            instance = new QueryResultCache(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+        }
+        return instance;
+    }
+
+    /**
+     * @return the given search term in lower case, with surrounding whitespace removed and
+     * inner whitespace collapsed to single spaces
+     */
+    public static String normalizeQuery(String query) {
+        if (query == null) {
+            return "";
+        }
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @param requestUrl is the base URL of the API the page was fetched from
+     * @return the cached page of results, or null if it is not cached or has expired
+     */
+    public List<Volume> get(String requestUrl, String query, int startIndex, int pageSize) {
+        String key = keyFor(requestUrl, query, startIndex, pageSize);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt >= timeToLive) {
+            entries.remove(key);
+            synchronized (this) {
+                expirationCount++;
+            }
+            entry = null;
+        }
+
+        Metrics.increment(entry != null ? Metrics.RESULT_CACHE_HIT : Metrics.RESULT_CACHE_MISS);
+        StatsListener listener = statsListener;
+        if (listener != null) {
+            if (entry != null) {
+                listener.onHit(key);
+            } else {
+                listener.onMiss(key);
+            }
+        }
+        return entry != null ? entry.volumes : null;
+    }
+
+    /**
+     * Keep a page of results. Failed requests, represented by null, are not cached.
+     *
+     * @param requestUrl is the base URL of the API the page was fetched from
+     */
+    public void put(String requestUrl, String query, int startIndex, int pageSize, List<Volume> volumes) {
+        if (volumes != null) {
+            entries.put(keyFor(requestUrl, query, startIndex, pageSize), new Entry(volumes));
+        }
+    }
+
+    /**
+     * Drop the least recently used pages until at most the given share of the maximum number
+     * of pages is kept.
+     *
+     * @return an estimate of the bytes held by the dropped pages
+     */
+    public long trim(float keepFraction) {
+        long before = getSizeBytes();
+        if (keepFraction <= 0) {
+            entries.evictAll();
+        } else {
+            entries.trimToSize((int) (entries.maxSize() * keepFraction));
+        }
+        return before - getSizeBytes();
+    }
+
+    /**
+     * @return an estimate of the bytes held by the cached pages
+     */
+    public long getSizeBytes() {
+        long size = 0;
+        for (Entry entry : entries.snapshot().values()) {
+            size += entry.sizeBytes;
+        }
+        return size;
+    }
+
+    /**
+     * Drop every cached page.
+     */
+    public void clear() {
+        entries.evictAll();
+    }
+
+    /**
+     * Set the listener notified of hits, misses and evictions, or null to remove it.
+     */
+    public void setStatsListener(StatsListener listener) {
+        statsListener = listener;
+    }
+
+    /**
+     * @return a summary of the cache's counters
+     */
+    public synchronized String getStats() {
+        return "hits=" + entries.hitCount() + ", misses=" + entries.missCount()
+                + ", evictions=" + entries.evictionCount() + ", expirations=" + expirationCount
+                + ", size=" + entries.size() + "/" + entries.maxSize();
+    }
+
+    private static String keyFor(String requestUrl, String query, int startIndex, int pageSize) {
+        return requestUrl + '\n' + normalizeQuery(query) + '\n' + startIndex + '\n' + pageSize;
+    }
+
+    /**
+     * Interface definition for callbacks invoked as the cache is used. They may be invoked
+     * on any thread.
+     */
+    public interface StatsListener {
+
+        void onHit(String key);
+
+        void onMiss(String key);
+
+        void onEviction(String key);
+    }
+
+    private static class Entry {
+
+        final List<Volume> volumes;
+        final long createdAt = System.currentTimeMillis();
+
+        /** Approximate size of the volumes in bytes, counting two bytes per character */
+        final long sizeBytes;
+
+        Entry(List<Volume> volumes) {
+            this.volumes = Collections.unmodifiableList(new ArrayList<>(volumes));
+            long size = 0;
+            for (Volume volume : volumes) {
+                size += VOLUME_OVERHEAD_BYTES + 2L * (length(volume.getId()) + length(volume.getTitle())
+                        + length(volume.getAuthorsText()) + length(volume.getCoverImageUrl())
+                        + length(volume.getSmallCoverImageUrl()));
+            }
+            this.sizeBytes = size;
+        }
+
+        private static int length(String string) {
+            return string == null ? 0 : string.length();
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package com.alperencan.booklisting.android.utils;
 
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
+import com.alperencan.booklisting.android.BuildConfig;
+import com.alperencan.booklisting.android.data.VolumeStore;
 import com.alperencan.booklisting.android.model.Volume;
 
 import org.json.JSONArray;
@@ -14,12 +21,26 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Helper methods related to requesting and receiving volume data from Google Books API.
@@ -40,34 +61,489 @@ public final class QueryUtils {
     private QueryUtils() {
     }
 
+    /**
+     * Number of volumes requested per page when no page size is given
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * Largest page size the Google Books API accepts for maxResults
+     */
+    public static final int MAX_PAGE_SIZE = 40;
+
+    /**
+     * URL for volume data from the Google Books API, set at build time
+     */
+    private static volatile String googleBooksApiBaseUrl = BuildConfig.GOOGLE_BOOKS_API_BASE_URL;
+
+    /**
+     * Fetch volume data from the given URL instead of the Google Books API, for instance from a
+     * local stand-in server in tests. Applies to searches and refreshes started after the call.
+     */
+    public static void setGoogleBooksApiBaseUrl(String url) {
+        googleBooksApiBaseUrl = url;
+    }
+
+    /**
+     * @return the URL volume data is fetched from
+     */
+    public static String getGoogleBooksApiBaseUrl() {
+        return googleBooksApiBaseUrl;
+    }
+
+    /**
+     * Partial response projection asking the Google Books API for only the fields we parse
+     */
+    private static final String FIELDS = "items(id,volumeInfo(title,authors,imageLinks(smallThumbnail,thumbnail)))";
+
+    /**
+     * Whether requests ask for {@link #FIELDS} only, rather than full volume resources
+     */
+    private static volatile boolean fieldProjectionEnabled = true;
+
+    /**
+     * Set whether requests ask for only the fields we parse. Turn it off to see full volume
+     * resources while debugging.
+     */
+    public static void setFieldProjectionEnabled(boolean enabled) {
+        fieldProjectionEnabled = enabled;
+    }
+
+    /**
+     * The ways a Google Books API response can be turned into {@link Volume}s.
+     */
+    public enum ParserMode {
+        /** Pull-parse the fields we need straight off the connection's InputStream */
+        STREAMING,
+        /** Read the whole response into a String and build an org.json tree from it */
+        DOM
+    }
+
+    /**
+     * Parser used by {@link #fetchVolumeData(String, String, int, int)}
+     */
+    private static volatile ParserMode parserMode = ParserMode.STREAMING;
+
+    /**
+     * Select the parser used for subsequent requests. The DOM parser is kept around so both
+     * paths can be compared on the same saved responses.
+     */
+    public static void setParserMode(ParserMode mode) {
+        parserMode = mode;
+    }
+
+    /**
+     * @return the parser used for subsequent requests
+     */
+    public static ParserMode getParserMode() {
+        return parserMode;
+    }
+
+    /**
+     * Cache of API responses, or null to always go to the network
+     */
+    private static volatile DiskResponseCache responseCache;
+
+    /**
+     * Set the cache API responses are stored in and served from, or null to disable it.
+     */
+    public static void setResponseCache(DiskResponseCache cache) {
+        responseCache = cache;
+    }
+
+    /**
+     * Policy failed requests are retried with
+     */
+    private static volatile RetryPolicy retryPolicy = new RetryPolicy(3, 500, 8000);
+
+    /**
+     * Circuit breaker requests fail fast with while the API is failing
+     */
+    private static volatile CircuitBreaker circuitBreaker = new CircuitBreaker(5, 30000);
+
+    /**
+     * Set the policy failed requests are retried with.
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        retryPolicy = policy;
+    }
+
+    /**
+     * Set the circuit breaker requests go through.
+     */
+    public static void setCircuitBreaker(CircuitBreaker breaker) {
+        circuitBreaker = breaker;
+    }
+
+    /**
+     * @return a summary of the retry and circuit breaker counters
+     */
+    public static String getResilienceStats() {
+        return "retry: " + retryPolicy.getStats() + "; circuit: " + circuitBreaker.getStats();
+    }
+
+    /**
+     * Local store every fetched volume is written to, or null to keep nothing
+     */
+    private static volatile VolumeStore volumeStore;
+
+    /**
+     * Set the local store fetched volumes are written to and searched in, or null to disable it.
+     */
+    public static void setVolumeStore(VolumeStore store) {
+        volumeStore = store;
+    }
+
+    /**
+     * Search the volumes fetched so far, without any network request. Blocks on disk.
+     *
+     * @param limit is the maximum number of volumes to return
+     * @return the stored volumes matching the search term, empty if there is no local store
+     */
+    public static List<Volume> findLocalVolumes(String query, int limit) {
+        VolumeStore store = volumeStore;
+        if (store == null) {
+            return new ArrayList<>();
+        }
+        return store.search(query, limit);
+    }
+
     /**
      * Query the Google Books API dataset and return a list of {@link Volume} objects.
      */
     public static List<Volume> fetchVolumeData(String requestUrl, String query) {
+        return fetchVolumeData(requestUrl, query, 0, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Query the Google Books API dataset for a single page of results and return a list of
+     * {@link Volume} objects.
+     *
+     * @param startIndex is the index of the first result to return
+     * @param pageSize is the number of results to return, at most {@link #MAX_PAGE_SIZE}
+     */
+    public static List<Volume> fetchVolumeData(String requestUrl, String query, int startIndex, int pageSize) {
+        return fetchVolumeData(requestUrl, query, startIndex, pageSize, false, null);
+    }
+
+    /**
+     * Query the Google Books API dataset for a single page of results and return a list of
+     * {@link Volume} objects.
+     *
+     * @param startIndex is the index of the first result to return
+     * @param pageSize is the number of results to return, at most {@link #MAX_PAGE_SIZE}
+     * @param offline is true when there is no network, so only cached responses are served,
+     *                however stale they are
+     * @param cancellationSignal aborts the HTTP request when cancelled, may be null
+     * @return the page of results, or null if the request failed or was cancelled
+     */
+    public static List<Volume> fetchVolumeData(String requestUrl, String query, int startIndex, int pageSize,
+                                               boolean offline, CancellationSignal cancellationSignal) {
+        return fetchVolumeResult(requestUrl, query, startIndex, pageSize, offline, cancellationSignal).getVolumes();
+    }
+
+    /**
+     * Query the Google Books API dataset for a single page of results. Failed requests are
+     * retried according to the {@link RetryPolicy}, and fail fast while the
+     * {@link CircuitBreaker} is open.
+     *
+     * @param startIndex is the index of the first result to return
+     * @param pageSize is the number of results to return, at most {@link #MAX_PAGE_SIZE}
+     * @param offline is true when there is no network, so only cached responses are served,
+     *                however stale they are
+     * @param cancellationSignal aborts the HTTP request when cancelled, may be null
+     * @return the page of results, or why it could not be fetched
+     */
+    public static FetchResult fetchVolumeResult(String requestUrl, String query, int startIndex, int pageSize,
+                                                boolean offline, CancellationSignal cancellationSignal) {
+        return fetchVolumeResult(requestUrl, query, startIndex, pageSize, offline, cancellationSignal, null, 0);
+    }
+
+    /**
+     * Interface definition for a callback invoked as the volumes of a response are parsed.
+     */
+    public interface StreamListener {
+
+        /**
+         * Called on the fetching thread with each batch of volumes as soon as it is parsed,
+         * before the rest of the response has arrived. Batches come in the order of the
+         * response, and together hold the same volumes as the final result.
+         *
+         * @param volumes is the next batch of volumes
+         */
+        void onVolumesParsed(List<Volume> volumes);
+    }
+
+    /**
+     * Query the Google Books API dataset for a single page of results, handing its volumes to
+     * the given listener in batches as they are parsed. Only the streaming parser can do so:
+     * with the DOM parser, or when the page is answered from memory, the volumes only come
+     * with the final result.
+     *
+     * @param streamListener is handed the volumes as they are parsed, may be null
+     * @param batchSize is the number of volumes per batch. The first volume is always handed
+     *                  over on its own, so that it shows as soon as possible.
+     * @return the page of results, or why it could not be fetched
+     * @see #fetchVolumeResult(String, String, int, int, boolean, CancellationSignal)
+     */
+    public static FetchResult fetchVolumeResult(String requestUrl, String query, int startIndex, int pageSize,
+                                                boolean offline, CancellationSignal cancellationSignal,
+                                                StreamListener streamListener, int batchSize) {
+        return fetchVolumeResult(requestUrl, query, startIndex, pageSize, offline, 0, cancellationSignal,
+                streamListener, batchSize);
+    }
+
+    /**
+     * @param timeToLive is the least time in milliseconds the response is then served from the
+     *                   response cache without being revalidated, or 0 for the cache's own
+     * @see #fetchVolumeResult(String, String, int, int, boolean, CancellationSignal, StreamListener, int)
+     */
+    private static FetchResult fetchVolumeResult(String requestUrl, String query, int startIndex, int pageSize,
+                                                 boolean offline, long timeToLive,
+                                                 CancellationSignal cancellationSignal,
+                                                 StreamListener streamListener, int batchSize) {
+        // Repeated searches are answered from memory, without any network or parsing.
+        // A request with a time to live goes on to the response cache, for its entry to last that long.
+        QueryResultCache resultCache = QueryResultCache.getInstance();
+        if (timeToLive <= 0) {
+            List<Volume> volumes = resultCache.get(requestUrl, query, startIndex, pageSize);
+            if (volumes != null) {
+                return FetchResult.success(volumes);
+            }
+        }
+
+        FetchResult result = fetchVolumeDataFromServer(requestUrl, query, startIndex, pageSize, offline,
+                timeToLive, cancellationSignal, streamListener, batchSize);
+        if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+            return FetchResult.failure(FetchResult.Error.CANCELLED);
+        }
+        if (!result.isSuccess()) {
+            return result;
+        }
+        resultCache.put(requestUrl, query, startIndex, pageSize, result.getVolumes());
+
+        // Keep them for local searches after the process is gone
+        VolumeStore store = volumeStore;
+        if (store != null) {
+            store.put(result.getVolumes());
+        }
+        return result;
+    }
+
+    /**
+     * Interface definition for a callback invoked as each query of a batch finishes.
+     */
+    public interface BatchListener {
+
+        /**
+         * Called on the thread running the batch when a query has finished.
+         *
+         * @param query is the search term that finished
+         * @param newVolumes are its results that no query finished earlier returned,
+         *                   null if the request failed
+         */
+        void onQueryFinished(String query, List<Volume> newVolumes);
+    }
+
+    /**
+     * Query the Google Books API dataset for the first page of results of several search
+     * terms at once. The queries run in parallel, at most {@code parallelism} at a time, and
+     * the whole batch gives up once the deadline is reached, cancelling the queries still
+     * running. Volumes returned by more than one query are kept once. Blocks until every
+     * query has finished, the deadline is reached or the batch is cancelled.
+     *
+     * @param pageSize is the number of results requested per query
+     * @param parallelism is the maximum number of queries running at once
+     * @param deadlineMillis is the time in milliseconds the whole batch may take
+     * @param listener is notified as each query finishes, may be null
+     * @param cancellationSignal cancels every query of the batch, may be null
+     * @return the distinct volumes of every query that finished in time, in the order the
+     * queries finished
+     */
+    public static List<Volume> fetchVolumeDataBatch(String requestUrl, Collection<String> queries,
+                                                    int pageSize, int parallelism, long deadlineMillis,
+                                                    BatchListener listener,
+                                                    CancellationSignal cancellationSignal) {
+        return fetchVolumeDataBatch(requestUrl, queries, pageSize, parallelism, deadlineMillis, 0, listener,
+                cancellationSignal);
+    }
+
+    /**
+     * Query the Google Books API dataset for the first page of results of several search
+     * terms at once, keeping the responses in the response cache for at least the given time.
+     * Every query goes to the response cache, even if its results are in memory, so that its
+     * entry is made to last that long.
+     *
+     * @param timeToLive is the least time in milliseconds the responses are then served from the
+     *                   response cache without being revalidated, or 0 for the cache's own
+     * @see #fetchVolumeDataBatch(String, Collection, int, int, long, BatchListener, CancellationSignal)
+     */
+    public static List<Volume> fetchVolumeDataBatch(final String requestUrl, Collection<String> queries,
+                                                    final int pageSize, int parallelism, long deadlineMillis,
+                                                    final long timeToLive, BatchListener listener,
+                                                    CancellationSignal cancellationSignal) {
+        final Map<String, Volume> volumesByKey = new LinkedHashMap<>();
+        // The same search term typed twice is only requested once
+        final Map<String, String> distinctQueries = new LinkedHashMap<>();
+        for (String query : queries) {
+            String key = QueryResultCache.normalizeQuery(query);
+            if (!key.isEmpty() && !distinctQueries.containsKey(key)) {
+                distinctQueries.put(key, query);
+            }
+        }
+        if (distinctQueries.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        long deadline = SystemClock.elapsedRealtime() + deadlineMillis;
+        final List<CancellationSignal> querySignals = new ArrayList<>();
+        // Identifies the query of a future that failed, and so has no BatchQuery to tell
+        Map<Future<BatchQuery>, String> queriesByFuture = new HashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism,
+                distinctQueries.size())));
+        CompletionService<BatchQuery> completionService = new ExecutorCompletionService<>(executor);
+        try {
+            for (final String query : distinctQueries.values()) {
+                final CancellationSignal querySignal = new CancellationSignal();
+                querySignals.add(querySignal);
+                queriesByFuture.put(completionService.submit(new Callable<BatchQuery>() {
+                    @Override
+                    public BatchQuery call() {
+                        return new BatchQuery(query, fetchVolumeResult(requestUrl, query, 0, pageSize, false,
+                                timeToLive, querySignal, null, 0).getVolumes());
+                    }
+                }), query);
+            }
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                    @Override
+                    public void onCancel() {
+                        cancelAll(querySignals);
+                    }
+                });
+            }
+
+            for (int i = 0; i < querySignals.size(); i++) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                Future<BatchQuery> future = remaining > 0
+                        ? completionService.poll(remaining, TimeUnit.MILLISECONDS) : null;
+                if (future == null) {
+                    Log.w(LOG_TAG, "Batch deadline reached with " + (querySignals.size() - i)
+                            + " queries unfinished.");
+                    break;
+                }
+                if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                    break;
+                }
+
+                BatchQuery result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    // Only this query failed, the others may have finished already
+                    Log.e(LOG_TAG, "Problem running a batch query.", e);
+                    result = new BatchQuery(queriesByFuture.get(future), null);
+                }
+                List<Volume> newVolumes = null;
+                if (result.volumes != null) {
+                    newVolumes = new ArrayList<>();
+                    for (Volume volume : result.volumes) {
+                        String key = TextUtils.isEmpty(volume.getId())
+                                ? volume.getTitle() + '\n' + volume.getAuthorsText() : volume.getId();
+                        if (!volumesByKey.containsKey(key)) {
+                            volumesByKey.put(key, volume);
+                            newVolumes.add(volume);
+                        }
+                    }
+                }
+                if (listener != null) {
+                    listener.onQueryFinished(result.query, newVolumes);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
+            }
+            cancelAll(querySignals);
+            executor.shutdownNow();
+        }
+        return new ArrayList<>(volumesByKey.values());
+    }
+
+    private static void cancelAll(List<CancellationSignal> signals) {
+        for (CancellationSignal signal : signals) {
+            signal.cancel();
+        }
+    }
+
+    /**
+     * Request a single page of results from the Google Books API, or from its response cache,
+     * and parse it into a list of {@link Volume} objects.
+     */
+    private static FetchResult fetchVolumeDataFromServer(String requestUrl, String query, int startIndex,
+                                                         int pageSize, boolean offline, long timeToLive,
+                                                         CancellationSignal cancellationSignal,
+                                                         StreamListener streamListener, int batchSize) {
         // Create URL object
-        URL url = createUrl(requestUrl, query);
+        URL url = createUrl(requestUrl, query, startIndex, pageSize);
 
-        // Perform HTTP request to the URL and receive a JSON response back
-        String jsonResponse = null;
+        // If the URL is null, then return early.
+        if (url == null) {
+            return FetchResult.failure(FetchResult.Error.CLIENT);
+        }
+
+        // Perform HTTP request to the URL, or find it in the cache, and receive a JSON response back
+        Response response = null;
         try {
-            jsonResponse = makeHttpRequest(url);
+            response = makeHttpRequest(url, offline, timeToLive, cancellationSignal);
+
+            // Extract relevant fields from the JSON response, create a list of {@link Volume}s and return.
+            // The streaming parser reads as the body arrives, so its span includes the download.
+            long parseStart = Metrics.begin(Metrics.JSON_PARSE);
+            List<Volume> volumes;
+            try {
+                if (parserMode == ParserMode.STREAMING) {
+                    volumes = extractVolumesFromStream(response.body, streamListener, batchSize);
+                } else {
+                    volumes = extractVolumesFromJson(readFromStream(response.body));
+                }
+            } finally {
+                Metrics.end(Metrics.JSON_PARSE, parseStart);
+            }
+            return volumes != null ? FetchResult.success(volumes) : FetchResult.failure(FetchResult.Error.NETWORK);
+        } catch (FetchException e) {
+            Log.w(LOG_TAG, "Problem retrieving the book JSON results: " + e.getMessage());
+            return FetchResult.failure(e.error);
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem making the HTTP request.", e);
+            if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                return FetchResult.failure(FetchResult.Error.CANCELLED);
+            }
+            Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
+            return FetchResult.failure(FetchResult.Error.NETWORK);
+        } catch (OperationCanceledException e) {
+            return FetchResult.failure(FetchResult.Error.CANCELLED);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
         }
-
-        // Extract relevant fields from the JSON response, create a list of {@link Volume}s and return.
-        return extractVolumesFromJson(jsonResponse);
     }
 
     /**
      * Returns new URL object from the given string URL.
      */
-    private static URL createUrl(String stringUrl, String query) {
-        Uri builtUri = Uri.parse(stringUrl)
+    private static URL createUrl(String stringUrl, String query, int startIndex, int pageSize) {
+        Uri.Builder builder = Uri.parse(stringUrl)
                 .buildUpon()
                 .appendQueryParameter("q", query)
-                .appendQueryParameter("maxResults", "20")
-                .build();
+                .appendQueryParameter("startIndex", String.valueOf(startIndex))
+                .appendQueryParameter("maxResults", String.valueOf(Math.min(pageSize, MAX_PAGE_SIZE)));
+        if (fieldProjectionEnabled) {
+            builder.appendQueryParameter("fields", FIELDS);
+        }
+        Uri builtUri = builder.build();
 
         URL url = null;
         try {
@@ -79,47 +555,174 @@ public final class QueryUtils {
     }
 
     /**
-     * Make an HTTP request to the given URL and return a String as the response.
+     * Make an HTTP request to the given URL and return the body of the response.
+     * A fresh cached response is returned without any request, a stale one is revalidated
+     * with a conditional request, and while offline any cached response is returned.
+     * Network errors, 5xx and 429 responses are retried with backoff, and a cached response
+     * is served stale if they persist.
+     * Requests go through the shared {@link HttpClient}. Cancelling the given signal
+     * disconnects the request, aborting any read or backoff in progress.
+     *
+     * @param timeToLive is the least time in milliseconds the response is then served from the
+     *                   cache without being revalidated, or 0 for the cache's own. A cached
+     *                   response stored with a shorter one is revalidated.
+     * @return the response
+     * @throws FetchException if there is no response to return
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
+    private static Response makeHttpRequest(URL url, boolean offline, long timeToLive,
+                                            CancellationSignal cancellationSignal) throws IOException {
+        DiskResponseCache cache = responseCache;
+        String key = url.toString();
+        DiskResponseCache.Entry entry = cache != null ? cache.get(key) : null;
 
-        // If the URL is null, then return early.
-        if (url == null) {
-            return jsonResponse;
+        if (entry != null && (offline || (cache.isFresh(entry) && entry.timeToLive >= timeToLive))) {
+            cache.recordHit(!cache.isFresh(entry));
+            return new Response(entry.openBody(), null, null);
+        }
+        if (offline) {
+            throw new FetchException(FetchResult.Error.OFFLINE, "No network and no cached response");
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        if (entry != null) {
+            // Ask the server to answer 304 Not Modified if the cached response is still valid
+            if (!TextUtils.isEmpty(entry.etag)) {
+                headers.put("If-None-Match", entry.etag);
+            }
+            if (!TextUtils.isEmpty(entry.lastModified)) {
+                headers.put("If-Modified-Since", entry.lastModified);
+            }
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
+        RetryPolicy policy = retryPolicy;
+        CircuitBreaker breaker = circuitBreaker;
+        FetchException failure = null;
+        for (int attempt = 1; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                failure = new FetchException(FetchResult.Error.CIRCUIT_OPEN, "Circuit open, not requesting " + url);
+                break;
+            }
+
+            String retryAfter = null;
+            HttpClient.Response httpResponse = null;
+            // True once the request is recorded with the breaker, or has a response, always recorded below
+            boolean recorded = false;
+            try {
+                httpResponse = HttpClient.getInstance().get(url, headers, cancellationSignal);
+                recorded = true;
+            } catch (IOException e) {
+                if (cancellationSignal != null && cancellationSignal.isCanceled()) {
+                    throw e;
+                }
+                breaker.recordFailure();
+                recorded = true;
+                failure = new FetchException(FetchResult.Error.NETWORK, e.toString());
+            } finally {
+                if (!recorded) {
+                    // Cancelled, or failed before the server answered: don't keep the circuit half-open
+                    breaker.recordCancelled();
+                }
+            }
+
+            if (httpResponse != null) {
+                int responseCode = httpResponse.getResponseCode();
+                if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                    breaker.recordSuccess();
+                    httpResponse.close();
+                    cache.markRevalidated(entry, timeToLive);
+                    return new Response(entry.openBody(), null, null);
+                }
+
+                // If the request was successful (response code 200),
+                // then read the input stream and parse the response.
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    breaker.recordSuccess();
+                    try {
+                        InputStream inputStream = httpResponse.getBody();
+                        DiskResponseCache.Editor editor = cache != null
+                                ? cache.edit(key, httpResponse.getHeaderField("ETag"),
+                                httpResponse.getHeaderField("Last-Modified"), timeToLive)
+                                : null;
+                        if (editor != null) {
+                            inputStream = editor.wrap(inputStream);
+                        }
+                        return new Response(inputStream, httpResponse, editor);
+                    } catch (IOException | RuntimeException e) {
+                        // Opening the body reads from the network, and fails if the request is cancelled.
+                        // Nothing owns the response yet, release its connection and host permit here.
+                        httpResponse.close();
+                        throw e;
+                    }
+                }
+
+                Log.e(LOG_TAG, "Error response code: " + responseCode);
+                retryAfter = httpResponse.getHeaderField("Retry-After");
+                httpResponse.close();
+                if (!RetryPolicy.isRetryable(responseCode)) {
+                    // The server is fine, the request is not: retrying would not help
+                    breaker.recordSuccess();
+                    failure = new FetchException(FetchResult.Error.CLIENT, "Response code " + responseCode);
+                    break;
+                }
+                breaker.recordFailure();
+                failure = new FetchException(responseCode == RetryPolicy.HTTP_TOO_MANY_REQUESTS
+                        ? FetchResult.Error.RATE_LIMITED : FetchResult.Error.SERVER, "Response code " + responseCode);
+            }
+
+            long delay = policy.nextDelay(attempt, retryAfter);
+            if (delay < 0) {
+                break;
+            }
+            Log.d(LOG_TAG, "Retrying in " + delay + "ms after " + failure.getMessage());
+            sleep(delay, cancellationSignal);
+        }
+
+        if (entry != null) {
+            Log.w(LOG_TAG, "Problem revalidating the cached response, serving it stale: " + failure.getMessage());
+            cache.recordHit(true);
+            return new Response(entry.openBody(), null, null);
+        }
+        throw failure;
+    }
+
+    /**
+     * Wait for the given time before a retry, returning early if the given signal is cancelled.
+     */
+    private static void sleep(long millis, CancellationSignal cancellationSignal) throws IOException {
+        final CountDownLatch cancelled = new CountDownLatch(1);
+        if (cancellationSignal != null) {
+            cancellationSignal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancelled.countDown();
+                }
+            });
+        }
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // If the request was successful (response code 200),
-            // then read the input stream and parse the response.
-            if (urlConnection.getResponseCode() == 200) {
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
-            } else {
-                Log.e(LOG_TAG, "Error response code: " + urlConnection.getResponseCode());
+            if (cancelled.await(millis, TimeUnit.MILLISECONDS)) {
+                throw new OperationCanceledException();
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Problem retrieving the book JSON results.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (cancellationSignal != null) {
+                cancellationSignal.setOnCancelListener(null);
             }
-            if (inputStream != null) {
-                // Closing the input stream could throw an IOException, which is why
-                // the makeHttpRequest(URL url) method signature specifies than an IOException
-                // could be thrown.
+        }
+    }
+
+    /**
+     * Close the given stream, logging instead of throwing if that fails.
+     */
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream != null) {
+            try {
                 inputStream.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Problem closing the input stream.", e);
             }
         }
-        return jsonResponse;
     }
 
     /**
@@ -144,7 +747,7 @@ public final class QueryUtils {
      * Return a list of {@link Volume} objects that has been built up from
      * parsing the given JSON response.
      */
-    private static List<Volume> extractVolumesFromJson(String volumeJSON) {
+    public static List<Volume> extractVolumesFromJson(String volumeJSON) {
         // If the JSON string is empty or null, then return early.
         if (TextUtils.isEmpty(volumeJSON)) {
             return null;
@@ -171,6 +774,9 @@ public final class QueryUtils {
                 // Get a single volume at position i within the list of volumes
                 JSONObject currentVolume = volumeArray.getJSONObject(i);
 
+                // Extract the value for the key called "id", which identifies the volume
+                String id = currentVolume.optString("id");
+
                 // For a given volume, extract the JSONObject associated with the
                 // key called "volumeInfo", which represents a list of all information
                 // for that volume.
@@ -191,16 +797,19 @@ public final class QueryUtils {
                     authorsArray = new String[]{};
                 }
 
-                // Extract the value for the key called "thumbnail" if there are any images.
+                // Extract the values for the keys called "thumbnail" and "smallThumbnail" if there are any images.
                 String thumbnail = "";
+                String smallThumbnail = "";
                 if (volumeInfo.has("imageLinks")) {
-                    thumbnail = volumeInfo.getJSONObject("imageLinks").getString("thumbnail");
+                    JSONObject imageLinks = volumeInfo.getJSONObject("imageLinks");
+                    thumbnail = imageLinks.optString("thumbnail");
+                    smallThumbnail = imageLinks.optString("smallThumbnail");
                 }
 
 
-                // Create a new {@link Volume} object with the title, authors, and thumbnail,
+                // Create a new {@link Volume} object with the id, title, authors, and thumbnails,
                 // from the JSON response.
-                Volume volume = new Volume(title, authorsArray, thumbnail);
+                Volume volume = new Volume(id, title, authorsArray, thumbnail, smallThumbnail);
 
                 // Add the new {@link Volume} to the list of volumes.
                 volumes.add(volume);
@@ -217,4 +826,210 @@ public final class QueryUtils {
         return volumes;
     }
 
-}
\ No newline at end of file
+    /**
+     * Return a list of {@link Volume} objects read from the given JSON stream. Only id,
+     * volumeInfo.title, volumeInfo.authors, volumeInfo.imageLinks.thumbnail and
+     * volumeInfo.imageLinks.smallThumbnail are kept,
+     * every other value is skipped without being materialized.
+     */
+    public static List<Volume> extractVolumesFromStream(InputStream inputStream) throws IOException {
+        return extractVolumesFromStream(inputStream, null, 0);
+    }
+
+    /**
+     * Return a list of {@link Volume} objects read from the given JSON stream, handing them to
+     * the given listener in batches as they are read. The first volume is handed over on its
+     * own, every later batch holds up to {@code batchSize} volumes.
+     *
+     * @param streamListener is handed the volumes as they are read, may be null
+     */
+    public static List<Volume> extractVolumesFromStream(InputStream inputStream, StreamListener streamListener,
+                                                        int batchSize) throws IOException {
+        List<Volume> volumes = new ArrayList<>();
+        List<Volume> batch = new ArrayList<>();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("items".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Volume volume = readVolume(reader);
+                        if (volume != null) {
+                            volumes.add(volume);
+                            if (streamListener != null) {
+                                batch.add(volume);
+                                if (volumes.size() == 1 || batch.size() >= batchSize) {
+                                    streamListener.onVolumesParsed(batch);
+                                    batch = new ArrayList<>();
+                                }
+                            }
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens with an IllegalStateException.
+            // Keep the volumes parsed so far, like the DOM parser does.
+            Log.e(LOG_TAG, "Problem parsing the volume JSON results", e);
+        } finally {
+            reader.close();
+        }
+
+        if (!batch.isEmpty()) {
+            streamListener.onVolumesParsed(batch);
+        }
+        return volumes;
+    }
+
+    /**
+     * Read a single element of the "items" array. Returns null if it has no title.
+     */
+    private static Volume readVolume(JsonReader reader) throws IOException {
+        String id = "";
+        String title = null;
+        String[] authors = new String[]{};
+        String thumbnail = "";
+        String smallThumbnail = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String itemName = reader.nextName();
+            if ("id".equals(itemName) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if ("volumeInfo".equals(itemName) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                    } else if ("title".equals(name)) {
+                        title = reader.nextString();
+                    } else if ("authors".equals(name)) {
+                        authors = readStringArray(reader);
+                    } else if ("imageLinks".equals(name)) {
+                        String[] thumbnails = readThumbnails(reader);
+                        thumbnail = thumbnails[0];
+                        smallThumbnail = thumbnails[1];
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return title == null ? null : new Volume(id, title, authors, thumbnail, smallThumbnail);
+    }
+
+    /**
+     * Read a JSON array of strings, such as volumeInfo.authors.
+     */
+    private static String[] readStringArray(JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values.toArray(new String[values.size()]);
+    }
+
+    /**
+     * Read the thumbnail and small thumbnail URLs out of volumeInfo.imageLinks, in that order,
+     * each "" if there is none.
+     */
+    private static String[] readThumbnails(JsonReader reader) throws IOException {
+        String[] thumbnails = new String[]{"", ""};
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("thumbnail".equals(name)) {
+                thumbnails[0] = reader.nextString();
+            } else if ("smallThumbnail".equals(name)) {
+                thumbnails[1] = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return thumbnails;
+    }
+
+    /**
+     * Thrown when a request has no response to return, with the reason why.
+     */
+    private static class FetchException extends IOException {
+
+        final FetchResult.Error error;
+
+        FetchException(FetchResult.Error error, String message) {
+            super(message);
+            this.error = error;
+        }
+    }
+
+    /**
+     * The results of one query of a batch.
+     */
+    private static class BatchQuery {
+
+        final String query;
+        final List<Volume> volumes;
+
+        BatchQuery(String query, List<Volume> volumes) {
+            this.query = query;
+            this.volumes = volumes;
+        }
+    }
+
+    /**
+     * The body of a response, from the network or the cache, and what to release once it is read.
+     */
+    private static class Response {
+
+        final InputStream body;
+        final HttpClient.Response httpResponse;
+        final DiskResponseCache.Editor editor;
+
+        Response(InputStream body, HttpClient.Response httpResponse, DiskResponseCache.Editor editor) {
+            this.body = body;
+            this.httpResponse = httpResponse;
+            this.editor = editor;
+        }
+
+        /**
+         * Release the response. A network response is stored in the cache only if its body
+         * could be read to the end.
+         */
+        void close() {
+            if (editor != null) {
+                try {
+                    byte[] buffer = new byte[1024];
+                    while (body.read(buffer) != -1) {
+                        // Drain whatever the parser left unread, so the cached copy is complete
+                    }
+                    editor.commit();
+                } catch (IOException e) {
+                    editor.abort();
+                }
+            }
+            if (httpResponse != null) {
+                // Closes the body, and keeps the connection alive if it was read to the end
+                httpResponse.close();
+            } else {
+                closeQuietly(body);
+            }
+        }
+    }
+}
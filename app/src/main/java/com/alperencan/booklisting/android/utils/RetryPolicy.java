@@ -0,0 +1,115 @@
+package com.alperencan.booklisting.android.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * {@link RetryPolicy} decides whether and when a failed Google Books API request is tried again.
+ * Network errors, 5xx and 429 responses are retried with exponential backoff and jitter, so
+ * that clients failing together do not retry together. A Retry-After header sent by the
+ * server is honoured, unless it asks for a longer wait than the policy allows.
+ * It counts the retries it allowed and the requests it gave up on.
+ */
+public class RetryPolicy {
+
+    /**
+     * Status code of a 429 Too Many Requests response, which HttpURLConnection has no constant for
+     */
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** Maximum number of attempts per request, the first one included */
+    private final int maxAttempts;
+
+    /** Backoff in milliseconds before the first retry */
+    private final long initialBackoff;
+
+    /** Longest time in milliseconds to wait before a retry */
+    private final long maxBackoff;
+
+    private final Random random = new Random();
+
+    private int retryCount;
+    private int giveUpCount;
+
+    /**
+     * Constructs a new {@link RetryPolicy}.
+     *
+     * @param maxAttempts is the maximum number of attempts per request, the first one included
+     * @param initialBackoff is the backoff in milliseconds before the first retry, doubled for every
+     *                       retry after it
+     * @param maxBackoff is the longest time in milliseconds to wait before a retry
+     */
+    public RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * @return whether a response with the given status code is worth retrying
+     */
+    public static boolean isRetryable(int responseCode) {
+        return responseCode >= 500 || responseCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * Decide whether to retry a request after its given attempt failed, and record it.
+     *
+     * @param attempt is the number of the attempt that failed, starting at 1
+     * @param retryAfter is the value of the response's Retry-After header, may be null
+     * @return the time in milliseconds to wait before retrying, or -1 to give up
+     */
+    public synchronized long nextDelay(int attempt, String retryAfter) {
+        if (attempt >= maxAttempts) {
+            giveUpCount++;
+            return -1;
+        }
+
+        // Equal jitter: half of the exponential backoff, plus a random part of the other half
+        long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+        long delay = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+
+        long serverDelay = parseRetryAfter(retryAfter, System.currentTimeMillis());
+        if (serverDelay > maxBackoff) {
+            // Not worth holding the request for that long
+            giveUpCount++;
+            return -1;
+        }
+        retryCount++;
+        return Math.max(delay, serverDelay);
+    }
+
+    /**
+     * @return the wait in milliseconds a Retry-After header asks for, either as a number of
+     * seconds or as an HTTP date, or 0 if it is missing or cannot be parsed
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        if (retryAfter == null || retryAfter.trim().isEmpty()) {
+            return 0;
+        }
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                Date date = format.parse(retryAfter);
+                return Math.max(0, date.getTime() - now);
+            } catch (ParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return a summary of the policy's counters
+     */
+    public synchronized String getStats() {
+        return "retries=" + retryCount + ", giveUps=" + giveUpCount;
+    }
+}
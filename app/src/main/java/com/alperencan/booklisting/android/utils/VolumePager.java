@@ -0,0 +1,426 @@
+package com.alperencan.booklisting.android.utils;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.alperencan.booklisting.android.model.Volume;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link VolumePager} loads the results of a search one page at a time. Attached to a
+ * {@link RecyclerView} as a scroll listener, it starts loading the next page in the background
+ * once the user scrolls within the prefetch distance of the end of the list.
+ *
+ * Pages are loaded on the {@link FetchExecutor} and delivered on the main thread to the
+ * listener currently attached. A pager can be retained across configuration changes: it is
+ * detached from the old activity, keeps loading, and replays every page loaded so far to the
+ * new activity when it is attached to it.
+ *
+ * While the first page is requested, the search also runs against the local store of volumes
+ * fetched before, and its matches are delivered as a provisional first page. The network
+ * results replace them when they arrive, and if the network has nothing to offer, the local
+ * matches stay as the only page.
+ *
+ * With streaming on, the volumes of a page are delivered in small batches as they are parsed,
+ * rather than once the whole response has arrived. The first batch of the first page replaces
+ * the list, and every later batch is delivered with the index of its first volume, so it is
+ * appended. A page that fails once some of its volumes are shown is requested again when the
+ * user scrolls to the end, and only its volumes not shown yet are delivered.
+ */
+public class VolumePager extends RecyclerView.OnScrollListener {
+
+    /**
+     * Interface definition for callbacks invoked on the main thread as pages are loaded.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a page, or part of a page, has been loaded. Volumes delivered with an
+         * index of 0 replace the list, any others are appended to it. The first page may be
+         * delivered twice: first with local matches, then with the network results that
+         * replace them.
+         *
+         * @param startIndex is the index of the first result delivered
+         * @param volumes are the results
+         */
+        void onPageLoaded(int startIndex, List<Volume> volumes);
+
+        /**
+         * Called when a page could not be loaded. A later page, or a page whose first
+         * results were delivered already, is requested again the next time the user scrolls
+         * to the end of the list.
+         *
+         * @param startIndex is the index of the first result not delivered
+         * @param error is why the page could not be loaded
+         */
+        void onPageFailed(int startIndex, FetchResult.Error error);
+    }
+
+    private final String requestUrl;
+    private final String query;
+    private final int pageSize;
+    private final int prefetchDistance;
+    private final Executor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Listener currently attached, or null */
+    private Listener listener;
+
+    /** Every volume loaded so far, replayed to newly attached listeners */
+    private final List<Volume> loadedVolumes = new ArrayList<>();
+
+    /** Local matches delivered ahead of the first page, or null */
+    private List<Volume> localVolumes;
+
+    /** True once the first page has been delivered */
+    private boolean firstPageLoaded;
+
+    /** Why the first page failed to load, or null */
+    private FetchResult.Error firstPageError;
+
+    /** True once the pager has been cancelled */
+    private boolean cancelled;
+
+    /** Index of the first result of the next page to load */
+    private int nextStartIndex;
+
+    /** True when there is no network and only cached pages can be served */
+    private boolean offline;
+
+    /** True once a page came back empty or failed */
+    private boolean exhausted;
+
+    /** Number of volumes per streamed batch, or 0 to deliver whole pages only */
+    private int streamBatchSize;
+
+    /** Number of volumes of the next page shown before an attempt to load it failed */
+    private int resumeOffset;
+
+    /** Page currently being loaded, or null */
+    private PageRequest request;
+
+    /**
+     * Constructs a new {@link VolumePager}.
+     *
+     * @param requestUrl is the base URL of the Google Books API
+     * @param query is the search term
+     * @param pageSize is the number of volumes requested per page
+     * @param prefetchDistance is how many rows before the end of the list the next page is requested
+     * @param listener is notified as pages are loaded
+     */
+    public VolumePager(String requestUrl, String query, int pageSize, int prefetchDistance, Listener listener) {
+        this(requestUrl, query, pageSize, prefetchDistance, listener, FetchExecutor.get());
+    }
+
+    /**
+     * Constructs a new {@link VolumePager} loading pages on the given executor.
+     */
+    public VolumePager(String requestUrl, String query, int pageSize, int prefetchDistance, Listener listener,
+                       Executor executor) {
+        this.requestUrl = requestUrl;
+        this.query = query;
+        this.pageSize = Math.min(pageSize, QueryUtils.MAX_PAGE_SIZE);
+        this.prefetchDistance = prefetchDistance;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * Deliver pages to the given listener from now on. If the first page has already been
+     * loaded, every volume loaded so far is delivered right away as the first page.
+     */
+    public void attach(Listener listener) {
+        this.listener = listener;
+        if (firstPageError != null) {
+            listener.onPageFailed(0, firstPageError);
+        } else if (firstPageLoaded) {
+            listener.onPageLoaded(0, new ArrayList<>(loadedVolumes));
+        } else if (localVolumes != null) {
+            listener.onPageLoaded(0, localVolumes);
+        }
+    }
+
+    /**
+     * Stop delivering pages to the current listener, without stopping the page being loaded.
+     */
+    public void detach() {
+        listener = null;
+    }
+
+    /**
+     * @return the search term whose results are being paged
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return every volume delivered so far: those loaded, or the local matches while the
+     * first page is loading
+     */
+    public List<Volume> getVolumes() {
+        if (!firstPageLoaded && localVolumes != null) {
+            return new ArrayList<>(localVolumes);
+        }
+        return new ArrayList<>(loadedVolumes);
+    }
+
+    /**
+     * @return true if only cached pages are served
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Set whether there is no network, so that only cached pages are served however stale they are.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Set the number of volumes delivered per batch as a page is parsed, or 0 to deliver
+     * whole pages only. Applies to pages requested after the call.
+     */
+    public void setStreamBatchSize(int streamBatchSize) {
+        this.streamBatchSize = streamBatchSize;
+    }
+
+    /**
+     * Start loading the next page, unless one is already loading or there are no more results.
+     */
+    public void loadNextPage() {
+        if (request != null || exhausted || cancelled) {
+            return;
+        }
+
+        // A repeated search renders its first page right away, from memory.
+        // Later pages are requested from scroll callbacks, where the adapter must not change,
+        // so they always go through a request even when they are cached.
+        if (nextStartIndex == 0 && !firstPageLoaded) {
+            List<Volume> volumes = QueryResultCache.getInstance().get(requestUrl, query, nextStartIndex, pageSize);
+            if (volumes != null) {
+                deliverPage(nextStartIndex, 0, FetchResult.success(volumes));
+                return;
+            }
+            executor.execute(new LocalSearch(this));
+        }
+
+        request = new PageRequest(this, nextStartIndex, offline, resumeOffset, streamBatchSize);
+        executor.execute(request);
+    }
+
+    /**
+     * Stop loading pages, aborting the HTTP request in progress if any.
+     * The listener will not be notified anymore.
+     */
+    public void cancel() {
+        cancelled = true;
+        listener = null;
+        if (request != null) {
+            request.cancellationSignal.cancel();
+            request = null;
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy <= 0) {
+            return;
+        }
+
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int lastVisiblePosition = layoutManager.findLastVisibleItemPosition();
+        if (lastVisiblePosition + prefetchDistance >= layoutManager.getItemCount()) {
+            loadNextPage();
+        }
+    }
+
+    private void onPageLoaded(PageRequest pageRequest, FetchResult result) {
+        if (pageRequest != request) {
+            return;
+        }
+        request = null;
+        deliverPage(pageRequest.startIndex, pageRequest.shown, result);
+    }
+
+    private void onVolumesStreamed(PageRequest pageRequest, List<Volume> batch) {
+        if (pageRequest != request) {
+            return;
+        }
+
+        // Skip the volumes shown by an earlier attempt at the same page
+        int batchStart = pageRequest.parsed;
+        pageRequest.parsed += batch.size();
+        if (pageRequest.parsed <= pageRequest.shown) {
+            return;
+        }
+        List<Volume> volumes = new ArrayList<>(batch.subList(Math.max(0, pageRequest.shown - batchStart),
+                batch.size()));
+        int index = pageRequest.startIndex + pageRequest.shown;
+        pageRequest.shown = pageRequest.parsed;
+        showVolumes(index, volumes);
+    }
+
+    private void onLocalMatches(List<Volume> volumes) {
+        // Too late, or nothing worth showing ahead of the network results
+        if (cancelled || firstPageLoaded || firstPageError != null || volumes.isEmpty()) {
+            return;
+        }
+        localVolumes = volumes;
+        if (listener != null) {
+            listener.onPageLoaded(0, volumes);
+        }
+    }
+
+    /**
+     * Deliver the result of a page.
+     *
+     * @param shown is the number of volumes of the page delivered already, as they were parsed
+     */
+    private void deliverPage(int startIndex, int shown, FetchResult result) {
+        List<Volume> volumes = result.getVolumes();
+        if (startIndex == 0 && shown == 0 && localVolumes != null && (volumes == null || volumes.isEmpty())) {
+            // Offline, failing, or nothing new on the server: keep showing what we have
+            result = FetchResult.success(localVolumes);
+            volumes = localVolumes;
+            exhausted = true;
+        }
+
+        if (!result.isSuccess()) {
+            if (shown > 0) {
+                // Part of the page is on screen, request the rest the next time the user scrolls to the end
+                resumeOffset = shown;
+            } else if (startIndex == 0) {
+                // Without a first page there is nothing to page through
+                firstPageError = result.getError();
+                exhausted = true;
+            }
+            if (listener != null) {
+                listener.onPageFailed(startIndex + shown, result.getError());
+            }
+            return;
+        }
+
+        if (volumes.isEmpty()) {
+            exhausted = true;
+        }
+        // Indices refer to the full result set, even if the API filtered some of the page out
+        nextStartIndex += pageSize;
+        resumeOffset = 0;
+
+        // Only deliver what was not streamed already, and always deliver a page that was not streamed at all
+        if (shown == 0) {
+            showVolumes(startIndex, volumes);
+        } else if (shown < volumes.size()) {
+            showVolumes(startIndex + shown, new ArrayList<>(volumes.subList(shown, volumes.size())));
+        }
+    }
+
+    private void showVolumes(int index, List<Volume> volumes) {
+        if (index == 0) {
+            firstPageLoaded = true;
+        }
+        loadedVolumes.addAll(volumes);
+
+        if (listener != null) {
+            listener.onPageLoaded(index, volumes);
+        }
+    }
+
+    /**
+     * Searches the local store on the executor and hands its matches to the pager on the main thread.
+     */
+    private static class LocalSearch implements Runnable {
+
+        private final VolumePager pager;
+
+        LocalSearch(VolumePager pager) {
+            this.pager = pager;
+        }
+
+        @Override
+        public void run() {
+            if (pager.cancelled) {
+                return;
+            }
+
+            final List<Volume> volumes = QueryUtils.findLocalVolumes(pager.query, pager.pageSize);
+            pager.mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    pager.onLocalMatches(volumes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads a single page on the executor and hands it to the pager on the main thread.
+     * It holds no reference to the activity, so a retained pager does not leak it.
+     */
+    private static class PageRequest implements Runnable {
+
+        private final VolumePager pager;
+        private final int startIndex;
+        private final boolean offline;
+        private final int streamBatchSize;
+        private final CancellationSignal cancellationSignal = new CancellationSignal();
+
+        /** Number of volumes of the page delivered so far. Accessed on the main thread only. */
+        private int shown;
+
+        /** Number of volumes of the page streamed so far. Accessed on the main thread only. */
+        private int parsed;
+
+        PageRequest(VolumePager pager, int startIndex, boolean offline, int shown, int streamBatchSize) {
+            this.pager = pager;
+            this.startIndex = startIndex;
+            this.offline = offline;
+            this.shown = shown;
+            this.streamBatchSize = streamBatchSize;
+        }
+
+        @Override
+        public void run() {
+            if (cancellationSignal.isCanceled()) {
+                return;
+            }
+
+            QueryUtils.StreamListener streamListener = null;
+            if (streamBatchSize > 0) {
+                streamListener = new QueryUtils.StreamListener() {
+                    @Override
+                    public void onVolumesParsed(final List<Volume> volumes) {
+                        pager.mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                pager.onVolumesStreamed(PageRequest.this, volumes);
+                            }
+                        });
+                    }
+                };
+            }
+
+            final FetchResult result = QueryUtils.fetchVolumeResult(pager.requestUrl, pager.query, startIndex,
+                    pager.pageSize, offline, cancellationSignal, streamListener, streamBatchSize);
+            if (cancellationSignal.isCanceled()) {
+                return;
+            }
+
+            pager.mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    pager.onPageLoaded(PageRequest.this, result);
+                }
+            });
+        }
+    }
+}
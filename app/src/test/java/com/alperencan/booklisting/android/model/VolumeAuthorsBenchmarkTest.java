@@ -0,0 +1,96 @@
+package com.alperencan.booklisting.android.model;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the allocations made per row bind by formatting the authors on every bind, as
+ * VolumeAdapter used to, with reading the text precomputed by {@link Volume}.
+ */
+public class VolumeAuthorsBenchmarkTest {
+
+    private static final int WARMUP_BINDS = 10000;
+    private static final int MEASURED_BINDS = 100000;
+
+    private static final String[] AUTHORS = {"Douglas Adams", "Eoin Colfer", "Neil Gaiman"};
+
+    /** Keeps the bound text reachable so the JIT cannot drop the work */
+    private String boundText;
+
+    @Test
+    public void authorsText_joinsEveryAuthor() throws Exception {
+        assertEquals("Douglas Adams, Eoin Colfer, Neil Gaiman", volume(AUTHORS).getAuthorsText());
+        assertEquals("Douglas Adams", volume(new String[]{"Douglas Adams"}).getAuthorsText());
+        assertEquals("", volume(new String[]{}).getAuthorsText());
+    }
+
+    @Test
+    public void authorsText_separatesDuplicateAuthors() throws Exception {
+        assertEquals("Anonymous, Anonymous", volume(new String[]{"Anonymous", "Anonymous"}).getAuthorsText());
+    }
+
+    @Test
+    public void precomputedAuthorsText_allocatesLessPerBind() throws Exception {
+        Object bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof ThreadMXBean);
+        ThreadMXBean threadBean = (ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+        final Volume volume = volume(AUTHORS);
+
+        double formatted = bytesPerBind(threadBean, new Runnable() {
+            @Override
+            public void run() {
+                boundText = formatAuthorsOnBind(AUTHORS);
+            }
+        });
+        double precomputed = bytesPerBind(threadBean, new Runnable() {
+            @Override
+            public void run() {
+                boundText = volume.getAuthorsText();
+            }
+        });
+
+        assertTrue("Bytes allocated per bind: formatted on bind=" + formatted + ", precomputed=" + precomputed,
+                precomputed < formatted);
+    }
+
+    private static Volume volume(String[] authors) {
+        return new Volume("id", "The Hitchhiker's Guide to the Galaxy", authors, "");
+    }
+
+    /**
+     * The authors formatting VolumeAdapter.onBindViewHolder used to run on every bind.
+     */
+    private static String formatAuthorsOnBind(String[] volumeAuthors) {
+        String authors = "";
+        for (String author : volumeAuthors) {
+            authors += author;
+            if (!author.equals(volumeAuthors[volumeAuthors.length - 1])) {
+                authors += ", ";
+            }
+        }
+        return authors;
+    }
+
+    private static double bytesPerBind(ThreadMXBean threadBean, Runnable bind) {
+        for (int i = 0; i < WARMUP_BINDS; i++) {
+            bind.run();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_BINDS; i++) {
+            bind.run();
+        }
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+        return (after - before) / (double) MEASURED_BINDS;
+    }
+}
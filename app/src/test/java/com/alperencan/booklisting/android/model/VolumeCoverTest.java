@@ -0,0 +1,34 @@
+package com.alperencan.booklisting.android.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which cover image variant is picked for the size it is shown at.
+ */
+public class VolumeCoverTest {
+
+    private static final String THUMBNAIL = "http://books.google.com/books/content?id=a&zoom=1";
+    private static final String SMALL_THUMBNAIL = "http://books.google.com/books/content?id=a&zoom=5";
+
+    private final Volume volume = new Volume("a", "Title", new String[]{"Author"}, THUMBNAIL, SMALL_THUMBNAIL);
+
+    @Test
+    public void picksTheSmallThumbnailWhenItFills() {
+        assertEquals(SMALL_THUMBNAIL, volume.getCoverImageUrl(64));
+        assertEquals(SMALL_THUMBNAIL, volume.getCoverImageUrl(Volume.SMALL_THUMBNAIL_WIDTH));
+    }
+
+    @Test
+    public void picksTheThumbnailForLargerViews() {
+        assertEquals(THUMBNAIL, volume.getCoverImageUrl(Volume.SMALL_THUMBNAIL_WIDTH + 1));
+        assertEquals(THUMBNAIL, volume.getCoverImageUrl(192));
+    }
+
+    @Test
+    public void fallsBackToTheVariantAvailable() {
+        assertEquals(THUMBNAIL, new Volume("a", "Title", new String[]{}, THUMBNAIL).getCoverImageUrl(64));
+        assertEquals(SMALL_THUMBNAIL, new Volume("a", "Title", new String[]{}, "", SMALL_THUMBNAIL).getCoverImageUrl(192));
+    }
+}
@@ -0,0 +1,59 @@
+package com.alperencan.booklisting.android.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the backoff and Retry-After handling of {@link RetryPolicy}.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesServerErrorsAndRateLimitsOnly() {
+        assertTrue(RetryPolicy.isRetryable(500));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(404));
+    }
+
+    @Test
+    public void backoffGrowsWithJitterAndIsCapped() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.nextDelay(1, null);
+            assertTrue(first >= 50 && first <= 100);
+            long third = policy.nextDelay(3, null);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = policy.nextDelay(8, null);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        assertTrue(policy.nextDelay(2, null) >= 0);
+        assertEquals(-1, policy.nextDelay(3, null));
+        assertEquals("retries=1, giveUps=1", policy.getStats());
+    }
+
+    @Test
+    public void honoursRetryAfterWithinTheMaximumBackoff() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 5000);
+        assertEquals(2000, policy.nextDelay(1, "2"));
+        assertEquals(-1, policy.nextDelay(1, "60"));
+    }
+
+    @Test
+    public void parsesRetryAfterSecondsAndDates() {
+        assertEquals(120000, RetryPolicy.parseRetryAfter("120", 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter(null, 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter("soon", 0));
+        // Thu, 01 Jan 1970 00:00:30 GMT is 30 seconds after the epoch
+        assertEquals(30000, RetryPolicy.parseRetryAfter("Thu, 01 Jan 1970 00:00:30 GMT", 0));
+    }
+}